@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AIDBenchmark {
+    // Size of the generated registry for trie and map lookups
+    @Param({"100", "100000"})
+    public int entries;
+
+    private final byte[] select = HexUtils.hex2bin("00A4040010A0000000620101FFEEDDCCBBAA99887700");
+    private final AID known = AID.fromString("A0000000620101");
+    private final AID applet = AID.fromString("A0000000620101FFEE");
+    private AID[] registered;
+    private Map<AID, String> map;
+    private AIDTrie trie;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(entries);
+        map = new HashMap<>();
+        while (map.size() < entries) {
+            byte[] aid = new byte[5 + random.nextInt(12)];
+            random.nextBytes(aid);
+            map.put(new AID(aid), Integer.toString(map.size()));
+        }
+        registered = map.keySet().toArray(new AID[0]);
+        trie = AIDTrie.of(map);
+        // Built-in list loaded outside of measurements
+        WellKnownAID.getName(known);
+    }
+
+    private AID next() {
+        AID aid = registered[next];
+        next = (next + 1) % registered.length;
+        return aid;
+    }
+
+    @Benchmark
+    public AID fromSlice() {
+        return new AID(select, 5, 16);
+    }
+
+    @Benchmark
+    public AID fromString() {
+        return AID.fromString("A0000000620101");
+    }
+
+    @Benchmark
+    public int hashCodeAID() {
+        return next().hashCode();
+    }
+
+    @Benchmark
+    public Optional<String> wellKnownName() {
+        return WellKnownAID.getName(known);
+    }
+
+    @Benchmark
+    public Optional<String> wellKnownPrefix() {
+        return WellKnownAID.getPrefixName(applet);
+    }
+
+    @Benchmark
+    public String mapGet() {
+        return map.get(next());
+    }
+
+    @Benchmark
+    public Optional<String> trieGet() {
+        return trie.get(next());
+    }
+
+    // Allocation free
+    @Benchmark
+    public String trieSlice() {
+        return trie.getLongestPrefix(select, 5, 16);
+    }
+}
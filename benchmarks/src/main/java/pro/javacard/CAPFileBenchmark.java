@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CAPFileBenchmark {
+    @Param({"small", "medium", "large"})
+    public String size;
+
+    private byte[] bytes;
+    private Path file;
+    private CAPFile cap;
+    private CAPFile signed;
+    private PrivateKey key;
+    private CAPFileSigner signer;
+    private DAPVerifier verifier;
+
+    // Discards everything, so that only store() is measured
+    private static final OutputStream NULL = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup
+    public void setup() throws Exception {
+        bytes = GeneratedCAP.generate(size);
+        file = Files.createTempFile("capfile", ".cap");
+        Files.write(file, bytes);
+        cap = CAPFile.fromBytes(bytes);
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        KeyPair pair = generator.generateKeyPair();
+        key = pair.getPrivate();
+        signer = new CAPFileSigner(key);
+        verifier = new DAPVerifier(Collections.singletonList(pair.getPublic()));
+        signed = CAPFile.fromBytes(bytes);
+        signer.sign(signed);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public CAPFile fromBytes() throws IOException {
+        return CAPFile.fromBytes(bytes);
+    }
+
+    @Benchmark
+    public CAPFile fromFile() throws IOException {
+        return CAPFile.fromFile(file);
+    }
+
+    @Benchmark
+    public byte[] getCode() {
+        return cap.getCode();
+    }
+
+    // Hashes are kept by CAPFile, so parse too
+    @Benchmark
+    public byte[] getLoadFileDataHash() throws IOException {
+        return CAPFile.fromBytes(bytes).getLoadFileDataHash("SHA-256");
+    }
+
+    @Benchmark
+    public void store() throws IOException {
+        cap.store(NULL);
+    }
+
+    @Benchmark
+    public CAPFile addSignature() throws Exception {
+        CAPFile c = CAPFile.fromBytes(bytes);
+        CAPFileSigner.addSignature(c, key);
+        return c;
+    }
+
+    // Key checked and signatures pooled once
+    @Benchmark
+    public CAPFile sign() throws Exception {
+        CAPFile c = CAPFile.fromBytes(bytes);
+        signer.sign(c);
+        return c;
+    }
+
+    @Benchmark
+    public Map<String, Boolean> verifyDAP() throws Exception {
+        return verifier.verify(signed);
+    }
+
+    @Benchmark
+    public void report(Blackhole bh) throws IOException {
+        ReportWriter out = ReportWriter.json(NULL);
+        CAPFile.fromBytes(bytes).report(out);
+        out.flush();
+        bh.consume(out);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// CAP files of a given size, with real Header, Import and Applet components and filler for the rest
+final class GeneratedCAP {
+    static final String DIR = "com/example/javacard/";
+    private static final byte[] HEADER = HexUtils.hex2bin("010013DECAFFED020204000108010203040506070800");
+    private static final byte[] IMPORT = HexUtils.hex2bin("04000B01010107A0000000620101");
+    private static final byte[] APPLET = HexUtils.hex2bin("03000D0109010203040506070801001F");
+
+    private GeneratedCAP() {
+    }
+
+    // Method component of the given size, other components relative to it
+    static byte[] generate(String size) throws IOException {
+        switch (size) {
+            case "small":
+                return generate(256);
+            case "medium":
+                return generate(8 * 1024);
+            case "large":
+                return generate(64 * 1024 - 4);
+            default:
+                throw new IllegalArgumentException("Unknown size: " + size);
+        }
+    }
+
+    static byte[] generate(int method) throws IOException {
+        Random random = new Random(method);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bos)) {
+            entry(out, "Header", HEADER);
+            entry(out, "Directory", component(2, 32, random));
+            entry(out, "Import", IMPORT);
+            entry(out, "Applet", APPLET);
+            entry(out, "Class", component(6, method / 8, random));
+            entry(out, "Method", component(7, method, random));
+            entry(out, "StaticField", component(8, method / 16, random));
+            entry(out, "ConstantPool", component(5, method / 4, random));
+            entry(out, "RefLocation", component(9, method / 8, random));
+            entry(out, "Descriptor", component(11, method / 4, random));
+            entry(out, "Debug", component(12, Math.min(method * 2, 0xFFFF), random));
+        }
+        return bos.toByteArray();
+    }
+
+    // Filler from a small alphabet, so that it compresses about like bytecode
+    private static byte[] component(int tag, int size, Random random) {
+        byte[] c = new byte[size + 3];
+        c[0] = (byte) tag;
+        c[1] = (byte) (size >> 8);
+        c[2] = (byte) size;
+        for (int i = 3; i < c.length; i++)
+            c[i] = (byte) (0x10 + random.nextInt(32));
+        return c;
+    }
+
+    private static void entry(ZipOutputStream out, String name, byte[] content) throws IOException {
+        out.putNextEntry(new ZipEntry(DIR + name + ".cap"));
+        out.write(content);
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexBenchmark {
+    // Bytes, from an AID to a large component
+    @Param({"16", "1024", "65536"})
+    public int length;
+
+    private byte[] bytes;
+    private String hex;
+    private String spaced;
+    private StringBuilder sb;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        hex = HexUtils.bin2hex(bytes);
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < hex.length(); i += 2)
+            s.append(i == 0 ? "" : " ").append(hex, i, i + 2);
+        spaced = s.toString();
+        sb = new StringBuilder(length * 2);
+        buffer = ByteBuffer.allocate(length);
+    }
+
+    @Benchmark
+    public String bin2hex() {
+        return HexUtils.bin2hex(bytes);
+    }
+
+    @Benchmark
+    public StringBuilder bin2hexInto() {
+        sb.setLength(0);
+        return HexUtils.bin2hex(bytes, 0, bytes.length, sb);
+    }
+
+    @Benchmark
+    public byte[] hex2bin() {
+        return HexUtils.hex2bin(hex);
+    }
+
+    @Benchmark
+    public byte[] stringToBin() {
+        return HexUtils.stringToBin(spaced);
+    }
+
+    @Benchmark
+    public ByteBuffer decodeInto() {
+        buffer.clear();
+        HexUtils.decode(spaced, buffer);
+        return buffer;
+    }
+}
@@ -22,10 +22,17 @@
 
 package pro.javacard;
 
-import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+// Up to 16 bytes, packed big endian into two longs
 public final class AID {
-    private final byte[] bytes;
+    private static final ConcurrentMap<AID, AID> interned = new ConcurrentHashMap<>();
+
+    private final long hi; // bytes 0..7
+    private final long lo; // bytes 8..15
+    private final int length;
+    private final int hash;
 
     public AID(byte[] bytes) throws IllegalArgumentException {
         this(bytes, 0, bytes.length);
@@ -35,11 +42,26 @@ public final class AID {
         this(HexUtils.hex2bin(str));
     }
 
+    // Bytes are not copied, nor the array kept
     public AID(byte[] bytes, int offset, int length) throws IllegalArgumentException {
         if ((length < 5) || (length > 16)) {
             throw new IllegalArgumentException("AID must be between 5 and 16 bytes: " + length);
         }
-        this.bytes = Arrays.copyOfRange(bytes, offset, offset + length);
+        if (offset < 0 || offset + length > bytes.length) {
+            throw new IllegalArgumentException("AID outside of buffer: " + offset + "+" + length);
+        }
+        long h = 0, l = 0;
+        for (int i = 0; i < length; i++) {
+            long b = bytes[offset + i] & 0xFFL;
+            if (i < 8)
+                h |= b << (56 - 8 * i);
+            else
+                l |= b << (56 - 8 * (i - 8));
+        }
+        this.hi = h;
+        this.lo = l;
+        this.length = length;
+        this.hash = (Long.hashCode(h) * 31 + Long.hashCode(l)) * 31 + length;
     }
 
     public static AID fromString(Object s) {
@@ -49,28 +71,48 @@ public final class AID {
         throw new IllegalArgumentException("Should be string");
     }
 
+    // The one instance of an equal AID, for keeping many copies of the same AID-s around
+    public AID intern() {
+        AID existing = interned.putIfAbsent(this, this);
+        return existing == null ? this : existing;
+    }
+
     public byte[] getBytes() {
-        return bytes.clone();
+        byte[] result = new byte[length];
+        copyTo(result, 0);
+        return result;
+    }
+
+    // Puts the bytes of the AID into the buffer, returns the length
+    public int copyTo(byte[] buf, int offset) {
+        for (int i = 0; i < length; i++)
+            buf[offset + i] = byteAt(i);
+        return length;
+    }
+
+    byte byteAt(int i) {
+        return (byte) (i < 8 ? hi >>> (56 - 8 * i) : lo >>> (56 - 8 * (i - 8)));
     }
 
     public int getLength() {
-        return bytes.length;
+        return length;
     }
 
     @Override
     public String toString() {
-        return HexUtils.bin2hex(bytes);
+        return HexUtils.bin2hex(getBytes());
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(bytes);
+        return hash;
     }
 
     @Override
     public boolean equals(Object o) {
         if (o instanceof AID) {
-            return Arrays.equals(((AID) o).bytes, bytes);
+            AID other = (AID) o;
+            return other.hi == hi && other.lo == lo && other.length == length;
         }
         return false;
     }
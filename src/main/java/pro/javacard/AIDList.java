@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// List of AID-s and their names, as YAML (aid_list.yml) or compiled at build time (aid_list.bin).
+// Public for the build, which runs main()
+public final class AIDList {
+    private static final int MAGIC = 0x4149444C; // AIDL
+    private static final int FORMAT = 1;
+
+    private AIDList() {
+    }
+
+    // All entries must be valid
+    static Map<AID, String> parse(InputStream in) throws IOException {
+        List<String> problems = new ArrayList<>();
+        Map<AID, String> result = parse(in, problems);
+        if (!problems.isEmpty())
+            throw new IOException(String.join("; ", problems));
+        return result;
+    }
+
+    // Invalid entries are skipped and added to problems, fails only if the list can not be read at all
+    static Map<AID, String> parse(InputStream in, List<String> problems) throws IOException {
+        final Object content;
+        try {
+            content = new Yaml().load(in);
+        } catch (RuntimeException e) {
+            // Also YAMLException, not named so that reading aid_list.bin does not need snakeyaml
+            throw new IOException("Invalid AID list: " + e.getMessage(), e);
+        }
+        Map<AID, String> result = new LinkedHashMap<>();
+        if (content == null)
+            return result;
+        if (!(content instanceof List))
+            throw new IOException("Invalid AID list: not a list");
+        for (Object o : (List<?>) content) {
+            Object aid = o instanceof Map ? ((Map<?, ?>) o).get("aid") : null;
+            Object name = o instanceof Map ? ((Map<?, ?>) o).get("name") : null;
+            try {
+                if (aid instanceof String && name instanceof String) {
+                    result.put(new AID((String) aid), (String) name);
+                    continue;
+                }
+            } catch (IllegalArgumentException e) {
+                // Not hex or not a valid length
+            }
+            problems.add("Invalid entry: " + o);
+        }
+        return result;
+    }
+
+    static void write(Map<AID, String> list, OutputStream to) throws IOException {
+        DataOutputStream out = new DataOutputStream(to);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeInt(list.size());
+        for (Map.Entry<AID, String> e : list.entrySet()) {
+            byte[] aid = e.getKey().getBytes();
+            out.writeByte(aid.length);
+            out.write(aid);
+            out.writeUTF(e.getValue());
+        }
+        out.flush();
+    }
+
+    static Map<AID, String> read(InputStream from) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(from));
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT)
+            throw new IOException("Unknown AID list format");
+        int count = in.readInt();
+        Map<AID, String> result = new LinkedHashMap<>(count * 4 / 3 + 1);
+        byte[] aid = new byte[16];
+        for (int i = 0; i < count; i++) {
+            int len = in.readUnsignedByte();
+            if (len > aid.length)
+                throw new IOException("Invalid AID length: " + len);
+            in.readFully(aid, 0, len);
+            result.put(new AID(aid, 0, len), in.readUTF());
+        }
+        return result;
+    }
+
+    // Used by the build: aid_list.yml aid_list.bin
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: AIDList <aid_list.yml> <aid_list.bin>");
+            System.exit(1);
+        }
+        Map<AID, String> list;
+        try (InputStream in = Files.newInputStream(Paths.get(args[0]))) {
+            list = parse(in);
+        }
+        Files.createDirectories(Paths.get(args[1]).toAbsolutePath().getParent());
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(args[1])))) {
+            write(list, out);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.util.*;
+
+/**
+ * Read-only index of AID-s and their names, for exact, longest prefix and RID lookups.
+ * <p>
+ * The trie is kept in a few primitive arrays: children of every node are stored as a contiguous run
+ * of edges, sorted by byte value, so lookups are a binary search per byte and do not allocate.
+ * Lookups work on slices of arrays, so an AID does not have to be copied out of an APDU or a CAP file.
+ */
+public final class AIDTrie {
+    private static final int RID_LENGTH = 5;
+
+    // Per node
+    private final int[] values; // index into names, -1 if no AID ends here
+    private final int[] edgeStart;
+    private final int[] edgeCount;
+    // Per edge
+    private final byte[] labels;
+    private final int[] targets;
+    private final String[] names;
+
+    private AIDTrie(int[] values, int[] edgeStart, int[] edgeCount, byte[] labels, int[] targets, String[] names) {
+        this.values = values;
+        this.edgeStart = edgeStart;
+        this.edgeCount = edgeCount;
+        this.labels = labels;
+        this.targets = targets;
+        this.names = names;
+    }
+
+    public static AIDTrie of(Map<AID, String> entries) {
+        byte[][] keys = new byte[entries.size()][];
+        String[] names = new String[entries.size()];
+        Integer[] order = new Integer[keys.length];
+        int n = 0;
+        for (Map.Entry<AID, String> e : entries.entrySet()) {
+            keys[n] = e.getKey().getBytes();
+            names[n] = Objects.requireNonNull(e.getValue());
+            order[n] = n;
+            n++;
+        }
+        Arrays.sort(order, (a, b) -> compare(keys[a], keys[b]));
+        Builder builder = new Builder(keys, order);
+        builder.node(0, keys.length, 0);
+        return new AIDTrie(Arrays.copyOf(builder.values, builder.nodes), Arrays.copyOf(builder.edgeStart, builder.nodes), Arrays.copyOf(builder.edgeCount, builder.nodes),
+                Arrays.copyOf(builder.labels, builder.edges), Arrays.copyOf(builder.targets, builder.edges), names);
+    }
+
+    // Unsigned lexicographic, so that the keys with a common prefix are next to each other
+    private static int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (c != 0)
+                return c;
+        }
+        return a.length - b.length;
+    }
+
+    // Nodes are laid out depth first, over sorted keys
+    private static final class Builder {
+        final byte[][] keys;
+        final Integer[] order;
+        int[] values = new int[64];
+        int[] edgeStart = new int[64];
+        int[] edgeCount = new int[64];
+        byte[] labels = new byte[64];
+        int[] targets = new int[64];
+        int nodes = 0;
+        int edges = 0;
+
+        Builder(byte[][] keys, Integer[] order) {
+            this.keys = keys;
+            this.order = order;
+        }
+
+        // Node for the keys in order[from, to), which all share the first depth bytes
+        int node(int from, int to, int depth) {
+            int node = nodes++;
+            if (node == values.length) {
+                values = Arrays.copyOf(values, node * 2);
+                edgeStart = Arrays.copyOf(edgeStart, node * 2);
+                edgeCount = Arrays.copyOf(edgeCount, node * 2);
+            }
+            values[node] = -1;
+            // The key ending here, if any, sorts first
+            if (from < to && keys[order[from]].length == depth) {
+                values[node] = order[from];
+                from++;
+            }
+            // Reserve a contiguous run of edges, one per distinct next byte
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (i == from || keys[order[i]][depth] != keys[order[i - 1]][depth])
+                    count++;
+            }
+            int start = edges;
+            edges += count;
+            if (edges > labels.length) {
+                int size = Math.max(edges, labels.length * 2);
+                labels = Arrays.copyOf(labels, size);
+                targets = Arrays.copyOf(targets, size);
+            }
+            edgeStart[node] = start;
+            edgeCount[node] = count;
+            int edge = start;
+            for (int i = from; i < to; ) {
+                byte b = keys[order[i]][depth];
+                int j = i + 1;
+                while (j < to && keys[order[j]][depth] == b)
+                    j++;
+                // Arrays may grow while building the child
+                int child = node(i, j, depth + 1);
+                labels[edge] = b;
+                targets[edge] = child;
+                edge++;
+                i = j;
+            }
+            return node;
+        }
+    }
+
+    // Child of node for the given byte, -1 if none
+    private int child(int node, byte b) {
+        int lo = edgeStart[node];
+        int hi = lo + edgeCount[node] - 1;
+        int key = b & 0xFF;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int v = labels[mid] & 0xFF;
+            if (v < key)
+                lo = mid + 1;
+            else if (v > key)
+                hi = mid - 1;
+            else
+                return targets[mid];
+        }
+        return -1;
+    }
+
+    // Value index of the longest registered prefix of the slice, -1 if none
+    private int longest(byte[] buf, int offset, int length) {
+        int node = 0;
+        int found = values[0];
+        for (int i = 0; i < length; i++) {
+            node = child(node, buf[offset + i]);
+            if (node < 0)
+                break;
+            if (values[node] >= 0)
+                found = values[node];
+        }
+        return found;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    // Name of exactly this AID, null if not known
+    public String get(byte[] buf, int offset, int length) {
+        int node = 0;
+        for (int i = 0; i < length && node >= 0; i++)
+            node = child(node, buf[offset + i]);
+        return node < 0 || values[node] < 0 ? null : names[values[node]];
+    }
+
+    public Optional<String> get(AID aid) {
+        byte[] b = aid.getBytes();
+        return Optional.ofNullable(get(b, 0, b.length));
+    }
+
+    // Name of the longest registered AID that the slice starts with, like a package of an applet AID
+    public String getLongestPrefix(byte[] buf, int offset, int length) {
+        int found = longest(buf, offset, length);
+        return found < 0 ? null : names[found];
+    }
+
+    public Optional<String> getLongestPrefix(AID aid) {
+        byte[] b = aid.getBytes();
+        return Optional.ofNullable(getLongestPrefix(b, 0, b.length));
+    }
+
+    // Name registered for the RID (first 5 bytes) of the slice, like a vendor
+    public String getRID(byte[] buf, int offset, int length) {
+        if (length < RID_LENGTH)
+            return null;
+        return get(buf, offset, RID_LENGTH);
+    }
+
+    public Optional<String> getRID(AID aid) {
+        byte[] b = aid.getBytes();
+        return Optional.ofNullable(getRID(b, 0, b.length));
+    }
+}
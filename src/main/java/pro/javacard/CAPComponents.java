@@ -0,0 +1,911 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Read-only views over the components of a CAP file, as specified in JavaCard VM Specification, chapter 6.
+ * <p>
+ * Views read directly from the component bytes and do not copy them. Variable length structures are
+ * walked with a cursor ({@code next()} moves to the following element), fixed length ones are accessed
+ * by index, so walking a component does not allocate. Views are not thread safe.
+ * <p>
+ * Offsets returned by views (class, method and static field offsets) are relative to the info item of
+ * the component, like offsets inside the CAP file itself.
+ */
+public final class CAPComponents {
+    public static final int TAG_HEADER = 1;
+    public static final int TAG_DIRECTORY = 2;
+    public static final int TAG_APPLET = 3;
+    public static final int TAG_IMPORT = 4;
+    public static final int TAG_CONSTANT_POOL = 5;
+    public static final int TAG_CLASS = 6;
+    public static final int TAG_METHOD = 7;
+    public static final int TAG_STATIC_FIELD = 8;
+    public static final int TAG_REF_LOCATION = 9;
+    public static final int TAG_EXPORT = 10;
+    public static final int TAG_DESCRIPTOR = 11;
+    public static final int TAG_DEBUG = 12;
+
+    private final CAPFile cap;
+
+    public CAPComponents(CAPFile cap) {
+        this.cap = cap;
+    }
+
+    public Header header() {
+        return new Header(cap.getComponent("Header"));
+    }
+
+    public Optional<Directory> directory() {
+        byte[] c = cap.getComponent("Directory");
+        return c == null ? Optional.empty() : Optional.of(new Directory(c, header().minor() < 2 ? 11 : 12));
+    }
+
+    public Optional<Applet> applet() {
+        byte[] c = cap.getComponent("Applet");
+        return c == null ? Optional.empty() : Optional.of(new Applet(c));
+    }
+
+    public Optional<Import> imports() {
+        byte[] c = cap.getComponent("Import");
+        return c == null ? Optional.empty() : Optional.of(new Import(c));
+    }
+
+    public Optional<ConstantPool> constantPool() {
+        byte[] c = cap.getComponent("ConstantPool");
+        return c == null ? Optional.empty() : Optional.of(new ConstantPool(c));
+    }
+
+    public Optional<Classes> classes() {
+        byte[] c = cap.getComponent("Class");
+        return c == null ? Optional.empty() : Optional.of(new Classes(c, header().minor() >= 2));
+    }
+
+    public Optional<Method> method() {
+        byte[] c = cap.getComponent("Method");
+        return c == null ? Optional.empty() : Optional.of(new Method(c));
+    }
+
+    public Optional<StaticField> staticField() {
+        byte[] c = cap.getComponent("StaticField");
+        return c == null ? Optional.empty() : Optional.of(new StaticField(c));
+    }
+
+    public Optional<RefLocation> refLocation() {
+        byte[] c = cap.getComponent("RefLocation");
+        return c == null ? Optional.empty() : Optional.of(new RefLocation(c));
+    }
+
+    public Optional<Export> export() {
+        byte[] c = cap.getComponent("Export");
+        return c == null ? Optional.empty() : Optional.of(new Export(c));
+    }
+
+    public Optional<Descriptor> descriptor() {
+        byte[] c = cap.getComponent("Descriptor");
+        return c == null ? Optional.empty() : Optional.of(new Descriptor(c));
+    }
+
+    static int u1(byte[] b, int offset) {
+        return b[offset] & 0xFF;
+    }
+
+    static int u2(byte[] b, int offset) {
+        return (b[offset] & 0xFF) << 8 | (b[offset + 1] & 0xFF);
+    }
+
+    // class_ref is either an internal offset into the Class component or an external package/class token pair
+    public static boolean isExternal(int classRef) {
+        return (classRef & 0x8000) != 0;
+    }
+
+    public static int packageToken(int classRef) {
+        return (classRef >> 8) & 0x7F;
+    }
+
+    public static int classToken(int classRef) {
+        return classRef & 0xFF;
+    }
+
+    public abstract static class Component {
+        static final int INFO = 3; // tag and size
+        final byte[] data;
+
+        Component(byte[] data) {
+            this.data = data;
+        }
+
+        public int tag() {
+            return u1(data, 0);
+        }
+
+        public int size() {
+            return u2(data, 1);
+        }
+
+        public byte[] bytes() {
+            return data;
+        }
+    }
+
+    // 6.4 Header Component
+    public static final class Header extends Component {
+        Header(byte[] data) {
+            super(data);
+        }
+
+        public int magic() {
+            return (u2(data, 3) << 16) | u2(data, 5);
+        }
+
+        public int minor() {
+            return u1(data, 7);
+        }
+
+        public int major() {
+            return u1(data, 8);
+        }
+
+        public int flags() {
+            return u1(data, 9);
+        }
+
+        public int packageMinor() {
+            return u1(data, 10);
+        }
+
+        public int packageMajor() {
+            return u1(data, 11);
+        }
+
+        public int aidOffset() {
+            return 13;
+        }
+
+        public int aidLength() {
+            return u1(data, 12);
+        }
+
+        public AID aid() {
+            return new AID(data, aidOffset(), aidLength());
+        }
+
+        // package_name_info is present from CAP format 2.2
+        public Optional<String> packageName() {
+            int offset = aidOffset() + aidLength();
+            if (offset >= INFO + size())
+                return Optional.empty();
+            return Optional.of(new String(data, offset + 1, u1(data, offset), StandardCharsets.US_ASCII));
+        }
+    }
+
+    // 6.5 Directory Component
+    public static final class Directory extends Component {
+        private final int components;
+        private int custom;
+        private int position;
+
+        Directory(byte[] data, int components) {
+            super(data);
+            this.components = components;
+            reset();
+        }
+
+        public int componentCount() {
+            return components;
+        }
+
+        // Size of a component by tag, as declared
+        public int componentSize(int tag) {
+            if (tag < 1 || tag > components)
+                throw new IllegalArgumentException("Invalid component tag: " + tag);
+            return u2(data, INFO + (tag - 1) * 2);
+        }
+
+        private int info() {
+            return INFO + components * 2;
+        }
+
+        public int imageSize() {
+            return u2(data, info());
+        }
+
+        public int arrayInitCount() {
+            return u2(data, info() + 2);
+        }
+
+        public int arrayInitSize() {
+            return u2(data, info() + 4);
+        }
+
+        public int importCount() {
+            return u1(data, info() + 6);
+        }
+
+        public int appletCount() {
+            return u1(data, info() + 7);
+        }
+
+        public int customCount() {
+            return u1(data, info() + 8);
+        }
+
+        // Cursor over custom_component_info
+        public void reset() {
+            custom = -1;
+            position = info() + 9;
+        }
+
+        public boolean next() {
+            if (custom >= 0)
+                position += 4 + customAidLength();
+            return ++custom < customCount();
+        }
+
+        public int customTag() {
+            return u1(data, position);
+        }
+
+        public int customSize() {
+            return u2(data, position + 1);
+        }
+
+        public int customAidOffset() {
+            return position + 4;
+        }
+
+        public int customAidLength() {
+            return u1(data, position + 3);
+        }
+    }
+
+    // 6.6 Applet Component
+    public static final class Applet extends Component {
+        private int applet;
+        private int position;
+
+        Applet(byte[] data) {
+            super(data);
+            reset();
+        }
+
+        public int count() {
+            return u1(data, INFO);
+        }
+
+        public void reset() {
+            applet = -1;
+            position = INFO + 1;
+        }
+
+        public boolean next() {
+            if (applet >= 0)
+                position += 1 + aidLength() + 2;
+            return ++applet < count();
+        }
+
+        public int aidOffset() {
+            return position + 1;
+        }
+
+        public int aidLength() {
+            return u1(data, position);
+        }
+
+        public int installMethodOffset() {
+            return u2(data, position + 1 + aidLength());
+        }
+    }
+
+    // 6.7 Import Component
+    public static final class Import extends Component {
+        private int pkg;
+        private int position;
+
+        Import(byte[] data) {
+            super(data);
+            reset();
+        }
+
+        public int count() {
+            return u1(data, INFO);
+        }
+
+        public void reset() {
+            pkg = -1;
+            position = INFO + 1;
+        }
+
+        public boolean next() {
+            if (pkg >= 0)
+                position += 3 + aidLength();
+            return ++pkg < count();
+        }
+
+        // Package token is the index of the package in the Import component
+        public int token() {
+            return pkg;
+        }
+
+        public int minor() {
+            return u1(data, position);
+        }
+
+        public int major() {
+            return u1(data, position + 1);
+        }
+
+        public int aidOffset() {
+            return position + 3;
+        }
+
+        public int aidLength() {
+            return u1(data, position + 2);
+        }
+    }
+
+    // 6.8 Constant Pool Component
+    public static final class ConstantPool extends Component {
+        public static final int CLASSREF = 1;
+        public static final int INSTANCE_FIELDREF = 2;
+        public static final int VIRTUAL_METHODREF = 3;
+        public static final int SUPER_METHODREF = 4;
+        public static final int STATIC_FIELDREF = 5;
+        public static final int STATIC_METHODREF = 6;
+
+        ConstantPool(byte[] data) {
+            super(data);
+        }
+
+        public int count() {
+            return u2(data, INFO);
+        }
+
+        private int entry(int index) {
+            return INFO + 2 + index * 4;
+        }
+
+        public int tag(int index) {
+            return u1(data, entry(index));
+        }
+
+        // For classref, instance field and virtual/super method references
+        public int classRef(int index) {
+            return u2(data, entry(index) + 1);
+        }
+
+        // For instance field and virtual/super method references, and external static references
+        public int token(int index) {
+            return u1(data, entry(index) + 3);
+        }
+
+        // For static references
+        public boolean isExternalStatic(int index) {
+            return (u1(data, entry(index) + 1) & 0x80) != 0;
+        }
+
+        public int staticPackageToken(int index) {
+            return u1(data, entry(index) + 1) & 0x7F;
+        }
+
+        public int staticClassToken(int index) {
+            return u1(data, entry(index) + 2);
+        }
+
+        public int staticOffset(int index) {
+            return u2(data, entry(index) + 2);
+        }
+    }
+
+    // 6.9 Class Component
+    public static final class Classes extends Component {
+        public static final int ACC_INTERFACE = 0x8;
+        public static final int ACC_SHAREABLE = 0x4;
+        public static final int ACC_REMOTE = 0x2;
+
+        private final int first;
+        private int position;
+        private int next;
+
+        Classes(byte[] data, boolean signaturePool) {
+            super(data);
+            this.first = signaturePool ? INFO + 2 + u2(data, INFO) : INFO;
+            reset();
+        }
+
+        public void reset() {
+            position = -1;
+            next = first;
+        }
+
+        public boolean next() {
+            if (next >= INFO + size())
+                return false;
+            position = next;
+            next = position + length();
+            return true;
+        }
+
+        // Offset of the current interface or class, as used by class_ref
+        public int offset() {
+            return position - INFO;
+        }
+
+        public int flags() {
+            return u1(data, position) >> 4;
+        }
+
+        public boolean isInterface() {
+            return (flags() & ACC_INTERFACE) != 0;
+        }
+
+        public int interfaceCount() {
+            return u1(data, position) & 0x0F;
+        }
+
+        public int superInterface(int index) {
+            return u2(data, position + 1 + index * 2);
+        }
+
+        public int superClassRef() {
+            return u2(data, position + 1);
+        }
+
+        public int declaredInstanceSize() {
+            return u1(data, position + 3);
+        }
+
+        public int firstReferenceToken() {
+            return u1(data, position + 4);
+        }
+
+        public int referenceCount() {
+            return u1(data, position + 5);
+        }
+
+        public int publicMethodTableBase() {
+            return u1(data, position + 6);
+        }
+
+        public int publicMethodTableCount() {
+            return u1(data, position + 7);
+        }
+
+        public int packageMethodTableBase() {
+            return u1(data, position + 8);
+        }
+
+        public int packageMethodTableCount() {
+            return u1(data, position + 9);
+        }
+
+        public int publicVirtualMethod(int index) {
+            return u2(data, position + 10 + index * 2);
+        }
+
+        public int packageVirtualMethod(int index) {
+            return u2(data, position + 10 + (publicMethodTableCount() + index) * 2);
+        }
+
+        private int length() {
+            int p;
+            if (isInterface()) {
+                p = position + 1 + interfaceCount() * 2;
+                if ((flags() & ACC_REMOTE) != 0)
+                    p += 1 + u1(data, p); // interface_name_info
+                return p - position;
+            }
+            p = position + 10 + (publicMethodTableCount() + packageMethodTableCount()) * 2;
+            for (int i = 0; i < interfaceCount(); i++)
+                p += 3 + u1(data, p + 2); // implemented_interface_info
+            if ((flags() & ACC_REMOTE) != 0) {
+                p += 1 + u1(data, p) * 5; // remote_method_info
+                p += 1 + u1(data, p); // hash_modifier
+                p += 1 + u1(data, p); // class_name
+                p += 1 + u1(data, p) * 2; // remote_interfaces
+            }
+            return p - position;
+        }
+    }
+
+    // 6.10 Method Component
+    public static final class Method extends Component {
+        public static final int ACC_EXTENDED = 0x8;
+        public static final int ACC_ABSTRACT = 0x4;
+        private int position;
+
+        Method(byte[] data) {
+            super(data);
+        }
+
+        public int handlerCount() {
+            return u1(data, INFO);
+        }
+
+        private int handler(int index) {
+            return INFO + 1 + index * 8;
+        }
+
+        public int handlerStartOffset(int index) {
+            return u2(data, handler(index));
+        }
+
+        public boolean handlerStopBit(int index) {
+            return (u2(data, handler(index) + 2) & 0x8000) != 0;
+        }
+
+        public int handlerActiveLength(int index) {
+            return u2(data, handler(index) + 2) & 0x7FFF;
+        }
+
+        public int handlerOffset(int index) {
+            return u2(data, handler(index) + 4);
+        }
+
+        public int handlerCatchTypeIndex(int index) {
+            return u2(data, handler(index) + 6);
+        }
+
+        // Moves to the method at the given offset, as found in the Descriptor component
+        public Method at(int offset) {
+            position = INFO + offset;
+            return this;
+        }
+
+        public int flags() {
+            return u1(data, position) >> 4;
+        }
+
+        public boolean isExtended() {
+            return (flags() & ACC_EXTENDED) != 0;
+        }
+
+        public boolean isAbstract() {
+            return (flags() & ACC_ABSTRACT) != 0;
+        }
+
+        public int maxStack() {
+            return isExtended() ? u1(data, position + 1) : u1(data, position) & 0x0F;
+        }
+
+        public int nargs() {
+            return isExtended() ? u1(data, position + 2) : u1(data, position + 1) >> 4;
+        }
+
+        public int maxLocals() {
+            return isExtended() ? u1(data, position + 3) : u1(data, position + 1) & 0x0F;
+        }
+
+        // Offset of the first bytecode of the current method
+        public int bytecodeOffset() {
+            return position - INFO + (isExtended() ? 4 : 2);
+        }
+    }
+
+    // 6.11 Static Field Component
+    public static final class StaticField extends Component {
+        private final int values;
+        private int init;
+        private int position;
+
+        StaticField(byte[] data) {
+            super(data);
+            int p = INFO + 6;
+            for (int i = 0; i < arrayInitCount(); i++)
+                p += 3 + u2(data, p + 1);
+            values = p;
+            reset();
+        }
+
+        public int imageSize() {
+            return u2(data, INFO);
+        }
+
+        public int referenceCount() {
+            return u2(data, INFO + 2);
+        }
+
+        public int arrayInitCount() {
+            return u2(data, INFO + 4);
+        }
+
+        // Cursor over array_init_info
+        public void reset() {
+            init = -1;
+            position = INFO + 6;
+        }
+
+        public boolean next() {
+            if (init >= 0)
+                position += 3 + count();
+            return ++init < arrayInitCount();
+        }
+
+        public int type() {
+            return u1(data, position);
+        }
+
+        // Number of bytes in values
+        public int count() {
+            return u2(data, position + 1);
+        }
+
+        public int valuesOffset() {
+            return position + 3;
+        }
+
+        public int defaultValueCount() {
+            return u2(data, values);
+        }
+
+        public int nonDefaultValueCount() {
+            return u2(data, values + 2);
+        }
+
+        public int nonDefaultValuesOffset() {
+            return values + 4;
+        }
+    }
+
+    // 6.12 Reference Location Component
+    public static final class RefLocation extends Component {
+        private final int byte2;
+
+        RefLocation(byte[] data) {
+            super(data);
+            byte2 = INFO + 2 + u2(data, INFO);
+        }
+
+        public int byteIndexCount() {
+            return u2(data, INFO);
+        }
+
+        public int byte2IndexCount() {
+            return u2(data, byte2);
+        }
+
+        // Offsets into the Method component of single byte constant pool indices
+        public Offsets byteIndices() {
+            return new Offsets(data, INFO + 2, byteIndexCount());
+        }
+
+        // Offsets into the Method component of two byte constant pool indices
+        public Offsets byte2Indices() {
+            return new Offsets(data, byte2 + 2, byte2IndexCount());
+        }
+
+        public static final class Offsets {
+            private final byte[] data;
+            private final int end;
+            private int position;
+            private int offset = 0;
+
+            Offsets(byte[] data, int start, int count) {
+                this.data = data;
+                this.position = start;
+                this.end = start + count;
+            }
+
+            // Next absolute offset, or -1 at the end. Deltas of 255 continue into the next byte.
+            public int next() {
+                while (position < end) {
+                    int delta = u1(data, position++);
+                    offset += delta;
+                    if (delta != 255)
+                        return offset;
+                }
+                return -1;
+            }
+        }
+    }
+
+    // 6.13 Export Component
+    public static final class Export extends Component {
+        private int cls;
+        private int position;
+
+        Export(byte[] data) {
+            super(data);
+            reset();
+        }
+
+        public int classCount() {
+            return u1(data, INFO);
+        }
+
+        public void reset() {
+            cls = -1;
+            position = INFO + 1;
+        }
+
+        public boolean next() {
+            if (cls >= 0)
+                position += 4 + (staticFieldCount() + staticMethodCount()) * 2;
+            return ++cls < classCount();
+        }
+
+        public int classOffset() {
+            return u2(data, position);
+        }
+
+        public int staticFieldCount() {
+            return u1(data, position + 2);
+        }
+
+        public int staticMethodCount() {
+            return u1(data, position + 3);
+        }
+
+        public int staticFieldOffset(int index) {
+            return u2(data, position + 4 + index * 2);
+        }
+
+        public int staticMethodOffset(int index) {
+            return u2(data, position + 4 + (staticFieldCount() + index) * 2);
+        }
+    }
+
+    // 6.14 Descriptor Component
+    public static final class Descriptor extends Component {
+        private static final int FIELD = 7;
+        private static final int METHOD = 12;
+
+        private final int types;
+        private int cls;
+        private int position;
+        private int type;
+
+        Descriptor(byte[] data) {
+            super(data);
+            reset();
+            while (next()) {
+                // Walk to find type_descriptor_info
+            }
+            types = position;
+            reset();
+        }
+
+        public int classCount() {
+            return u1(data, INFO);
+        }
+
+        // Cursor over class_descriptor_info
+        public void reset() {
+            cls = -1;
+            position = INFO + 1;
+        }
+
+        public boolean next() {
+            if (cls >= 0)
+                position += 9 + interfaceCount() * 2 + fieldCount() * FIELD + methodCount() * METHOD;
+            return ++cls < classCount();
+        }
+
+        public int token() {
+            return u1(data, position);
+        }
+
+        public int accessFlags() {
+            return u1(data, position + 1);
+        }
+
+        public int thisClassRef() {
+            return u2(data, position + 2);
+        }
+
+        public int interfaceCount() {
+            return u1(data, position + 4);
+        }
+
+        public int fieldCount() {
+            return u2(data, position + 5);
+        }
+
+        public int methodCount() {
+            return u2(data, position + 7);
+        }
+
+        public int interfaceRef(int index) {
+            return u2(data, position + 9 + index * 2);
+        }
+
+        private int field(int index) {
+            return position + 9 + interfaceCount() * 2 + index * FIELD;
+        }
+
+        public int fieldToken(int index) {
+            return u1(data, field(index));
+        }
+
+        public int fieldAccessFlags(int index) {
+            return u1(data, field(index) + 1);
+        }
+
+        // Offset of field_ref (3 bytes) in the component
+        public int fieldRefOffset(int index) {
+            return field(index) + 2;
+        }
+
+        public int fieldType(int index) {
+            return u2(data, field(index) + 5);
+        }
+
+        private int method(int index) {
+            return field(fieldCount()) + index * METHOD;
+        }
+
+        public int methodToken(int index) {
+            return u1(data, method(index));
+        }
+
+        public int methodAccessFlags(int index) {
+            return u1(data, method(index) + 1);
+        }
+
+        public int methodOffset(int index) {
+            return u2(data, method(index) + 2);
+        }
+
+        public int methodTypeOffset(int index) {
+            return u2(data, method(index) + 4);
+        }
+
+        public int bytecodeCount(int index) {
+            return u2(data, method(index) + 6);
+        }
+
+        public int exceptionHandlerCount(int index) {
+            return u2(data, method(index) + 8);
+        }
+
+        public int exceptionHandlerIndex(int index) {
+            return u2(data, method(index) + 10);
+        }
+
+        // type_descriptor_info
+        public int constantPoolCount() {
+            return u2(data, types);
+        }
+
+        public int constantPoolType(int index) {
+            return u2(data, types + 2 + index * 2);
+        }
+
+        // Moves the type cursor to a type_offset, relative to type_descriptor_info
+        public Descriptor type(int offset) {
+            type = types + offset;
+            return this;
+        }
+
+        public int nibbleCount() {
+            return u1(data, type);
+        }
+
+        public int nibble(int index) {
+            int b = u1(data, type + 1 + index / 2);
+            return (index & 1) == 0 ? b >> 4 : b & 0x0F;
+        }
+    }
+}
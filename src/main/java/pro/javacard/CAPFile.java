@@ -32,6 +32,9 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
@@ -41,7 +44,6 @@ import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 /**
  * Parses a CAP file as specified in JavaCard 2.2 VM Specification, chapter 6.
@@ -55,6 +57,9 @@ public class CAPFile {
 
     private static final String[] componentNames = {"Header", "Directory", "Import", "Applet", "Class", "Method", "StaticField", "Export",
             "ConstantPool", "RefLocation", "Descriptor", "Debug"};
+    private static final AID JAVACARD_FRAMEWORK = new AID("A0000000620101").intern();
+    private static final AID JAVACARD_SECURITY = new AID("A0000000620102").intern();
+    private static final AID GLOBALPLATFORM = new AID("A00000015100").intern();
     protected final Map<String, byte[]> entries; // All raw ZIP entries
     // Parsed content
     private final Map<AID, String> applets = new LinkedHashMap<>();
@@ -65,6 +70,10 @@ public class CAPFile {
     // Metadata
     private Manifest manifest = null; // From 2.2.2
     private Document appletxml = null; // From 3.0.1
+    private boolean metadata = false; // manifest and applet.xml parsed
+    // Load File hashes, valid as long as the components they were computed over are the same
+    private final Map<String, byte[]> hashes = new HashMap<>();
+    private List<byte[]> hashed = Collections.emptyList();
     private Path file;
 
 
@@ -72,16 +81,26 @@ public class CAPFile {
         return new CAPFile(in);
     }
 
+    // Components are inflated from the archive only when accessed
     public static CAPFile fromBytes(byte[] bytes) throws IOException {
-        return fromStream(new ByteArrayInputStream(bytes));
+        return new CAPFile(ZipEntries.parse(bytes), false);
     }
 
     public static CAPFile fromFile(Path path) throws IOException {
-        try (InputStream in = Files.newInputStream(path)) {
-            CAPFile cap = fromStream(in);
-            cap.file = path;
-            return cap;
-        }
+        CAPFile cap = fromBytes(Files.readAllBytes(path));
+        cap.file = path;
+        return cap;
+    }
+
+    // Only Header, Applet and Import are decoded. Metadata is parsed on first use, other components when accessed.
+    public static CAPFile peek(byte[] bytes) throws IOException {
+        return new CAPFile(ZipEntries.parse(bytes), true);
+    }
+
+    public static CAPFile peek(Path path) throws IOException {
+        CAPFile cap = peek(Files.readAllBytes(path));
+        cap.file = path;
+        return cap;
     }
 
     public Optional<Path> getFile() {
@@ -96,41 +115,32 @@ public class CAPFile {
         return entries.get("META-INF/" + name);
     }
 
+    // Entries that have not changed since parsing are copied without recompressing
     public void store(OutputStream to) throws IOException {
-        try (ZipOutputStream out = new ZipOutputStream(to)) {
-            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
-                out.putNextEntry(new ZipEntry(e.getKey()));
-                out.write(e.getValue());
-                out.closeEntry();
-            }
+        try {
+            ZipEntries.store(entries, to);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Lazily inflated entries fail with UncheckedIOException, unwrapped here
+    private byte[] entry(String name) throws IOException {
+        try {
+            return entries.get(name);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
 
     protected CAPFile(InputStream in) throws IOException {
-        try (ZipInputStream zip = new ZipInputStream(in)) {
-            // All ZIP entries
-            entries = readEntries(zip);
-            // Parse manifest
-            byte[] mf = entries.get("META-INF/MANIFEST.MF");
-            if (mf != null) {
-                ByteArrayInputStream mfi = new ByteArrayInputStream(mf);
-                manifest = new Manifest(mfi);
-            }
+        this(readEntries(in), false);
+    }
 
-            // Only if there are applets
-            byte[] ai = entries.get("APPLET-INF/applet.xml");
-            if (ai != null) {
-                try {
-                    DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-                    DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-                    appletxml = dBuilder.parse(new ByteArrayInputStream(ai));
-                    appletxml.getDocumentElement().normalize();
-                } catch (SAXException | ParserConfigurationException e) {
-                    throw new IOException(e);
-                }
-            }
-        }
+    protected CAPFile(Map<String, byte[]> entries, boolean lazy) throws IOException {
+        // All ZIP entries
+        this.entries = entries;
 
         // Figure out package name. Failsafe without metadata as well, for 2.1.X support.
         String pkgname = null;
@@ -147,7 +157,8 @@ public class CAPFile {
 
         // Parse package.
         // See JCVM 2.2 spec section 6.3 for offsets.
-        byte[] header = entries.get(pkg2jcdir(pkgname) + "Header.cap");
+        byte[] header = entry(pkg2jcdir(pkgname) + "Header.cap");
+        check(1, header);
         cap_version = String.format("%d.%d", header[8], header[7]);
         flags = header[9];
 
@@ -155,8 +166,9 @@ public class CAPFile {
 
         // Parse applets
         // See JCVM 2.2 spec section 6.5 for offsets.
-        byte[] applet = getComponent("Applet");
+        byte[] applet = entry(pkg2jcdir(pkgname) + "Applet.cap");
         if (applet != null) {
+            check(3, applet);
             int offset = 4;
             for (int j = 0; j < (applet[3] & 0xFF); j++) {
                 int len = applet[offset++];
@@ -170,17 +182,52 @@ public class CAPFile {
             }
         }
         // Parse imports
-        byte[] imps = getComponent("Import");
+        byte[] imps = entry(pkg2jcdir(pkgname) + "Import.cap");
         if (imps != null) {
+            check(4, imps);
             int offset = 4;
             for (int j = 0; j < (imps[3] & 0xFF); j++) {
-                AID aid = new AID(imps, offset + 3, imps[offset + 2]);
+                AID aid = new AID(imps, offset + 3, imps[offset + 2]).intern();
                 CAPPackage p = new CAPPackage(aid, imps[offset + 1], imps[offset]);
                 imports.add(p);
                 offset += imps[offset + 2] + 3;
             }
         }
 
+        if (!lazy)
+            parseMetadata();
+    }
+
+    // Offsets in components parsed here are not trusted
+    private static void check(int tag, byte[] component) throws IOException {
+        String problem = StructureChecker.check(tag, component);
+        if (problem != null)
+            throw new IOException("Invalid CAP file: " + problem);
+    }
+
+    private synchronized void parseMetadata() throws IOException {
+        if (metadata)
+            return;
+        // Parse manifest
+        byte[] mf = entry("META-INF/MANIFEST.MF");
+        if (mf != null) {
+            ByteArrayInputStream mfi = new ByteArrayInputStream(mf);
+            manifest = new Manifest(mfi);
+        }
+
+        // Only if there are applets
+        byte[] ai = entry("APPLET-INF/applet.xml");
+        if (ai != null) {
+            try {
+                DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+                DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+                appletxml = dBuilder.parse(new ByteArrayInputStream(ai));
+                appletxml.getDocumentElement().normalize();
+            } catch (SAXException | ParserConfigurationException e) {
+                throw new IOException(e);
+            }
+        }
+
         // Parse metadata to get applet names. Somewhat redundant
         if (appletxml != null) {
             NodeList apps = appletxml.getElementsByTagName("applet");
@@ -194,20 +241,48 @@ public class CAPFile {
                 applets.put(aid, name);
             }
         }
+        metadata = true;
+    }
+
+    // Metadata of a peeked CAP file is parsed on first use
+    private void metadata() {
+        try {
+            parseMetadata();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not parse CAP metadata: " + e.getMessage(), e);
+        }
     }
 
-    private Map<String, byte[]> readEntries(ZipInputStream in) throws IOException {
+    private static Map<String, byte[]> readEntries(InputStream stream) throws IOException {
         Map<String, byte[]> result = new LinkedHashMap<>();
-        ZipEntry entry = in.getNextEntry();
-        while (entry != null) {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            byte[] buf = new byte[1024];
-            int c;
-            while ((c = in.read(buf)) != -1) {
-                bos.write(buf, 0, c);
+        try (ZipInputStream in = new ZipInputStream(stream)) {
+            ZipEntry entry = in.getNextEntry();
+            byte[] buf = new byte[4096];
+            while (entry != null) {
+                final byte[] content;
+                // Size is known if the entry has no data descriptor
+                if (entry.getSize() >= 0 && entry.getSize() <= Integer.MAX_VALUE) {
+                    content = new byte[(int) entry.getSize()];
+                    int n = 0;
+                    while (n < content.length) {
+                        int c = in.read(content, n, content.length - n);
+                        if (c == -1)
+                            throw new EOFException("Truncated entry " + entry.getName());
+                        n += c;
+                    }
+                    if (in.read() != -1)
+                        throw new IOException("Invalid size for entry " + entry.getName());
+                } else {
+                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                    int c;
+                    while ((c = in.read(buf)) != -1) {
+                        bos.write(buf, 0, c);
+                    }
+                    content = bos.toByteArray();
+                }
+                result.put(entry.getName(), content);
+                entry = in.getNextEntry();
             }
-            result.put(entry.getName(), bos.toByteArray());
-            entry = in.getNextEntry();
         }
         return result;
     }
@@ -216,6 +291,10 @@ public class CAPFile {
         return pkg.aid;
     }
 
+    public CAPPackage getPackage() {
+        return pkg;
+    }
+
     public List<AID> getAppletAIDs() {
         List<AID> result = new ArrayList<>();
         result.addAll(applets.keySet());
@@ -235,37 +314,138 @@ public class CAPFile {
         return _getCode(includeDebug);
     }
 
-    byte[] _getCode(boolean includeDebug) {
-        byte[] result = new byte[0];
+    // Components that make up the Load File, in order
+    private List<byte[]> components(boolean includeDebug) {
+        List<byte[]> result = new ArrayList<>();
         for (String name : componentNames) {
-            byte[] c = getComponent(name);
-            if (c == null)
-                continue;
             if (!includeDebug && (name.equals("Debug") || name.equals("Descriptor")))
                 continue;
-            result = concat(result, c);
+            byte[] c = getComponent(name);
+            if (c != null)
+                result.add(c);
+        }
+        return result;
+    }
+
+    private static boolean same(List<byte[]> a, List<byte[]> b) {
+        if (a.size() != b.size())
+            return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i))
+                return false;
+        }
+        return true;
+    }
+
+    byte[] _getCode(boolean includeDebug) {
+        List<byte[]> components = components(includeDebug);
+        byte[] result = new byte[length(components)];
+        int offset = 0;
+        for (byte[] c : components) {
+            System.arraycopy(c, 0, result, offset, c.length);
+            offset += c.length;
         }
         return result;
     }
 
+    public int getCodeLength() {
+        return length(components(false));
+    }
+
+    // Load File as read-only views of the components, without copying
+    public ByteBuffer[] getCodeBuffers() {
+        List<byte[]> components = components(false);
+        ByteBuffer[] result = new ByteBuffer[components.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = ByteBuffer.wrap(components.get(i)).asReadOnlyBuffer();
+        return result;
+    }
+
+    public long writeCode(WritableByteChannel out) throws IOException {
+        ByteBuffer[] buffers = getCodeBuffers();
+        long total = 0;
+        if (out instanceof GatheringByteChannel) {
+            long length = getCodeLength();
+            while (total < length)
+                total += ((GatheringByteChannel) out).write(buffers);
+        } else {
+            for (ByteBuffer b : buffers) {
+                while (b.hasRemaining())
+                    total += out.write(b);
+            }
+        }
+        return total;
+    }
+
+    // Load File split into blocks for LOAD commands
+    public LoadBlocks getLoadBlocks(int blockSize) {
+        return LoadBlocks.of(blockSize, components(false), null, null);
+    }
+
+    // Load File with a DAP Block for the given Security Domain, with signature from META-INF/dap
+    public LoadBlocks getLoadBlocks(int blockSize, AID sd, String dap) {
+        byte[] signature = getMetaInfEntry(dap);
+        if (signature == null)
+            throw new IllegalArgumentException("No such DAP: " + dap);
+        return LoadBlocks.of(blockSize, components(false), sd, signature);
+    }
+
+    private static int length(List<byte[]> components) {
+        int length = 0;
+        for (byte[] c : components)
+            length += c.length;
+        return length;
+    }
+
     public byte[] getLoadFileDataHash(String hash) {
-        try {
-            return MessageDigest.getInstance(hash).digest(getCode());
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Not possible", e);
+        return getLoadFileDataHashes(hash).get(hash);
+    }
+
+    // Computes all missing hashes in a single pass over the Load File and remembers them
+    public synchronized Map<String, byte[]> getLoadFileDataHashes(String... algorithms) {
+        List<byte[]> components = components(false);
+        if (!same(components, hashed)) {
+            hashes.clear();
+            hashed = components;
+        }
+        Map<String, MessageDigest> missing = new LinkedHashMap<>();
+        for (String alg : algorithms) {
+            if (!hashes.containsKey(alg) && !missing.containsKey(alg)) {
+                try {
+                    missing.put(alg, MessageDigest.getInstance(alg));
+                } catch (NoSuchAlgorithmException e) {
+                    throw new RuntimeException("Not possible", e);
+                }
+            }
         }
+        if (!missing.isEmpty()) {
+            for (byte[] c : components) {
+                for (MessageDigest md : missing.values())
+                    md.update(c);
+            }
+            for (Map.Entry<String, MessageDigest> e : missing.entrySet())
+                hashes.put(e.getKey(), e.getValue().digest());
+        }
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        for (String alg : algorithms)
+            result.put(alg, hashes.get(alg).clone());
+        return result;
     }
 
     @Deprecated
     public byte[] getLoadFileDataHash(String hash, boolean includeDebug) {
         try {
-            return MessageDigest.getInstance(hash).digest(_getCode(includeDebug));
+            MessageDigest md = MessageDigest.getInstance(hash);
+            for (byte[] c : components(includeDebug))
+                md.update(c);
+            return md.digest();
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("Not possible", e);
         }
     }
 
     public void dump(PrintStream out) {
+        metadata();
         Optional<String> gpv = guessGlobalPlatformVersion();
         Optional<String> jcv = guessJavaCardVersion();
         String gpversion = gpv.isPresent() ? "/GlobalPlatform " + gpv.get() : "";
@@ -300,9 +480,21 @@ public class CAPFile {
                 out.println("On " + cap_creation_time + " with JDK " + jdk_name);
             }
         }
-        out.println("Code size " + getCode().length + " bytes (" + getCode(true).length + " with debug)");
-        out.println("SHA-256 " + HexUtils.bin2hex(getLoadFileDataHash("SHA-256")).toLowerCase());
-        out.println("SHA-1   " + HexUtils.bin2hex(getLoadFileDataHash("SHA-1")).toLowerCase());
+        out.println("Code size " + getCodeLength() + " bytes (" + length(components(true)) + " with debug)");
+        Map<String, byte[]> lfdbh = getLoadFileDataHashes("SHA-256", "SHA-1");
+        out.println("SHA-256 " + HexUtils.bin2hex(lfdbh.get("SHA-256")).toLowerCase());
+        out.println("SHA-1   " + HexUtils.bin2hex(lfdbh.get("SHA-1")).toLowerCase());
+    }
+
+    // Structured report of what dump() prints, see ReportWriter
+    public void report(ReportWriter out) throws IOException {
+        final CAPFileInfo info;
+        try {
+            info = CAPFileInfo.of(this);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        info.report(out, file);
     }
 
     public List<String> getFlags() {
@@ -325,15 +517,15 @@ public class CAPFile {
     }
 
     public Map<AID, String> getApplets() {
+        metadata();
         return applets;
     }
 
     // Guess the targeted JavaCard version based on javacard.framework version
     // See https://stackoverflow.com/questions/25031338/how-to-get-javacard-version-on-card for a nice list
     public Optional<String> guessJavaCardVersion() {
-        AID jf = new AID("A0000000620101"); // javacard.framework
         for (CAPPackage p : imports) {
-            if (p.aid.equals(jf)) {
+            if (p.aid.equals(JAVACARD_FRAMEWORK)) {
                 switch (p.minor) {
                     case 0:
                         return Optional.of("2.1.1");
@@ -357,9 +549,8 @@ public class CAPFile {
             }
         }
 
-        AID js = new AID("A0000000620102"); // javacard.security
         for (CAPPackage p : imports) {
-            if (p.aid.equals(js)) {
+            if (p.aid.equals(JAVACARD_SECURITY)) {
                 switch (p.minor) {
                     case 1:
                         return Optional.of("2.1.1");
@@ -385,9 +576,8 @@ public class CAPFile {
     }
 
     public Optional<String> guessGlobalPlatformVersion() {
-        AID jf = new AID("A00000015100");
         for (CAPPackage p : imports) {
-            if (p.aid.equals(jf) && p.major == 1) {
+            if (p.aid.equals(GLOBALPLATFORM) && p.major == 1) {
                 if (p.minor == 0) {
                     return Optional.of("2.1.1");
                 } else if (p.minor >= 1 && p.minor <= 4) {
@@ -412,10 +602,4 @@ public class CAPFile {
     private static String jcdir2pkg(String jcdir) {
         return jcdir.substring(0, jcdir.lastIndexOf("/javacard/")).replace('/', '.');
     }
-
-    private static byte[] concat(byte[] a, byte[] b) {
-        byte[] r = Arrays.copyOf(a, a.length + b.length);
-        System.arraycopy(b, 0, r, a.length, b.length);
-        return r;
-    }
 }
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Processes many CAP files in one JVM, on a bounded pool of (virtual, if available) threads.
+ * Every file results in one line of output, in the order the files were given. At most twice the
+ * number of threads files are in flight, so a slow file does not make the rest pile up in memory.
+ */
+public final class CAPFileBatch {
+
+    // Writes the fields of the record of a file, after "file"
+    public interface Job {
+        void process(Path file, ReportWriter out) throws Exception;
+    }
+
+    public interface InfoJob {
+        CAPFileInfo process(Path file) throws Exception;
+    }
+
+    private interface Task<T> {
+        T process(Path file) throws Exception;
+    }
+
+    // Takes results in the order of files
+    private interface Sink<T> {
+        void result(Path file, T result) throws IOException;
+
+        void error(Path file, String message) throws IOException;
+    }
+
+    private CAPFileBatch() {
+    }
+
+    // Expands directories (recursively), globs and @listfiles to a list of CAP files
+    public static List<Path> collect(List<String> args) throws IOException {
+        Set<Path> result = new LinkedHashSet<>();
+        for (String arg : args) {
+            if (arg.startsWith("@")) {
+                List<String> lines = Files.readAllLines(Paths.get(arg.substring(1)), StandardCharsets.UTF_8).stream()
+                        .map(String::trim)
+                        .filter(l -> !l.isEmpty() && !l.startsWith("#"))
+                        .collect(Collectors.toList());
+                result.addAll(collect(lines));
+            } else if (isGlob(arg)) {
+                result.addAll(glob(arg));
+            } else {
+                Path p = Paths.get(arg);
+                if (Files.isDirectory(p)) {
+                    result.addAll(walk(p, Integer.MAX_VALUE, f -> f.getFileName().toString().toLowerCase().endsWith(".cap")));
+                } else {
+                    result.add(p);
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static boolean isGlob(String arg) {
+        return arg.contains("*") || arg.contains("?") || arg.contains("[") || arg.contains("{");
+    }
+
+    private static List<Path> glob(String pattern) throws IOException {
+        // Walk from the longest prefix without wildcards
+        String separator = FileSystems.getDefault().getSeparator();
+        int wildcard = pattern.length();
+        for (char c : new char[]{'*', '?', '[', '{'}) {
+            int i = pattern.indexOf(c);
+            if (i >= 0)
+                wildcard = Math.min(wildcard, i);
+        }
+        int slash = Math.max(pattern.lastIndexOf('/', wildcard), pattern.lastIndexOf(separator, wildcard));
+        Path base = slash < 0 ? Paths.get("") : Paths.get(pattern.substring(0, slash + 1));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        if (!Files.isDirectory(base.toString().isEmpty() ? Paths.get(".") : base))
+            return Collections.emptyList();
+        // Only descend as deep as the pattern can match
+        String rest = pattern.substring(slash + 1);
+        int depth = rest.contains("**") ? Integer.MAX_VALUE : rest.split("[/\\\\]").length;
+        return walk(base, depth, matcher);
+    }
+
+    private static List<Path> walk(Path base, int depth, PathMatcher matcher) throws IOException {
+        try (Stream<Path> files = Files.walk(base, depth, FileVisitOption.FOLLOW_LINKS)) {
+            return files.filter(Files::isRegularFile).filter(matcher::matches).sorted().collect(Collectors.toList());
+        }
+    }
+
+    static ExecutorService executor(int threads) {
+        try {
+            // Java 21+
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    // Runs the job over all files with at most threads jobs in flight, one JSON line per file. Returns false if any file failed.
+    public static boolean run(List<Path> files, int threads, Job job, OutputStream out) throws InterruptedException {
+        return run(files, threads, job, ReportWriter::json, out);
+    }
+
+    // Same, records in the given format (like ReportWriter::cbor). Failed files get a record with file and error.
+    public static boolean run(List<Path> files, int threads, Job job, Function<OutputStream, ReportWriter> format, OutputStream out) throws InterruptedException {
+        return records(files, threads, (f, w) -> {
+            w.beginObject().name("file").value(f.toString());
+            job.process(f, w);
+            w.endObject();
+        }, format, out);
+    }
+
+    // Reports of CAP files, one record per file in the given format. Failed files get a record with file and error.
+    public static boolean report(List<Path> files, int threads, InfoJob job, Function<OutputStream, ReportWriter> format, OutputStream out) throws InterruptedException {
+        return records(files, threads, (f, w) -> job.process(f).report(w, f), format, out);
+    }
+
+    // Job writes the whole record
+    private static boolean records(List<Path> files, int threads, Job job, Function<OutputStream, ReportWriter> format, OutputStream out) throws InterruptedException {
+        try {
+            return run(files, threads, f -> {
+                // Records are serialized in parallel
+                ByteArrayOutputStream record = new ByteArrayOutputStream();
+                try (ReportWriter w = format.apply(record)) {
+                    job.process(f, w);
+                }
+                return record;
+            }, new Sink<ByteArrayOutputStream>() {
+                @Override
+                public void result(Path file, ByteArrayOutputStream result) throws IOException {
+                    result.writeTo(out);
+                }
+
+                @Override
+                public void error(Path file, String message) throws IOException {
+                    ByteArrayOutputStream record = new ByteArrayOutputStream();
+                    try (ReportWriter w = format.apply(record)) {
+                        w.beginObject().name("file").value(file.toString()).name("error").value(message).endObject();
+                    }
+                    record.writeTo(out);
+                }
+            });
+        } finally {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                // Reported by the next write, if any
+            }
+        }
+    }
+
+    private static <T> boolean run(List<Path> files, int threads, Task<T> job, Sink<T> out) throws InterruptedException {
+        final Semaphore permits = new Semaphore(threads);
+        // Results held for printing in order, behind a slow file
+        final int window = 2 * threads;
+        final Deque<Map.Entry<Path, Future<T>>> pending = new ArrayDeque<>();
+        boolean ok = true;
+        ExecutorService pool = executor(threads);
+        try {
+            for (Path file : files) {
+                permits.acquire();
+                Future<T> f;
+                try {
+                    f = pool.submit(() -> {
+                        try {
+                            return job.process(file);
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    throw e;
+                }
+                pending.add(new AbstractMap.SimpleEntry<>(file, f));
+                // Print what is already done, keeping the order. Wait for the oldest if the window is full
+                while (!pending.isEmpty() && (pending.size() >= window || pending.peek().getValue().isDone()))
+                    ok &= print(pending.poll(), out);
+            }
+            while (!pending.isEmpty())
+                ok &= print(pending.poll(), out);
+        } finally {
+            pool.shutdownNow();
+        }
+        return ok;
+    }
+
+    private static <T> boolean print(Map.Entry<Path, Future<T>> result, Sink<T> out) throws InterruptedException {
+        try {
+            try {
+                out.result(result.getKey(), result.getValue().get());
+                return true;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                String message = cause instanceof NoSuchFileException ? "No such file" : cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage();
+                out.error(result.getKey(), message);
+                return false;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Summary of a CAP file as a single line of JSON
+    public static String summary(Path file) throws IOException {
+        return summary(file, CAPFileInfo.of(CAPFile.fromFile(file)));
+    }
+
+    public static String summary(Path file, CAPFileInfo cap) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ReportWriter out = ReportWriter.json(bos)) {
+            cap.report(out, file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // Without the newline
+        return new String(bos.toByteArray(), 0, bos.size() - 1, StandardCharsets.UTF_8);
+    }
+}
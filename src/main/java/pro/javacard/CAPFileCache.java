@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * On-disk cache of {@link CAPFileInfo}, so that re-scanning unchanged CAP files does not parse them again.
+ * <p>
+ * Files are recognized by path, size and modification time, in which case only a stat is needed.
+ * Otherwise the file is read and looked up by the SHA-256 of its contents, so that
+ * touched or copied but identical files are not parsed either. Records are evicted in least
+ * recently used order once their total size exceeds the given limit. The cache is kept in memory
+ * and written to a single file in the cache directory on close.
+ */
+public final class CAPFileCache implements Closeable {
+    private static final int MAGIC = 0x43415043; // CAPC
+    private static final int FORMAT = 2; // Bump when CAPFileInfo or CAPFile guessing changes
+    private static final String FILENAME = "capfile.cache";
+
+    private static final class Stamp {
+        final long size;
+        final long mtime;
+        final ByteBuffer fingerprint;
+
+        Stamp(long size, long mtime, ByteBuffer fingerprint) {
+            this.size = size;
+            this.mtime = mtime;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private final Path file;
+    private final long limit;
+    private final Map<String, Stamp> paths = new HashMap<>();
+    private final LinkedHashMap<ByteBuffer, byte[]> records = new LinkedHashMap<>(16, 0.75f, true); // LRU order
+    private long total = 0;
+
+    private CAPFileCache(Path dir, long limit) {
+        this.file = dir.resolve(FILENAME);
+        this.limit = limit;
+    }
+
+    public static CAPFileCache open(Path dir) throws IOException {
+        return open(dir, 64 * 1024 * 1024);
+    }
+
+    public static CAPFileCache open(Path dir, long limit) throws IOException {
+        Files.createDirectories(dir);
+        CAPFileCache cache = new CAPFileCache(dir, limit);
+        if (Files.isRegularFile(cache.file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cache.file)))) {
+                cache.load(in);
+            } catch (IOException e) {
+                // Start from scratch with a broken or old cache
+                cache.paths.clear();
+                cache.records.clear();
+                cache.total = 0;
+            }
+        }
+        return cache;
+    }
+
+    private void load(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT)
+            throw new IOException("Unknown cache format");
+        for (int i = in.readInt(); i > 0; i--) {
+            String path = in.readUTF();
+            paths.put(path, new Stamp(in.readLong(), in.readLong(), readFingerprint(in)));
+        }
+        // Least recently used first
+        for (int i = in.readInt(); i > 0; i--) {
+            ByteBuffer fingerprint = readFingerprint(in);
+            byte[] record = new byte[in.readUnsignedShort()];
+            in.readFully(record);
+            records.put(fingerprint, record);
+            total += record.length;
+        }
+    }
+
+    public CAPFileInfo get(Path cap) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(cap, BasicFileAttributes.class);
+        String key = cap.toAbsolutePath().normalize().toString();
+        long mtime = attrs.lastModifiedTime().toMillis();
+        synchronized (this) {
+            Stamp stamp = paths.get(key);
+            if (stamp != null && stamp.size == attrs.size() && stamp.mtime == mtime) {
+                byte[] record = records.get(stamp.fingerprint);
+                if (record != null)
+                    return CAPFileInfo.read(new DataInputStream(new ByteArrayInputStream(record)));
+            }
+        }
+        byte[] bytes = Files.readAllBytes(cap);
+        ByteBuffer fingerprint = fingerprint(bytes);
+        synchronized (this) {
+            paths.put(key, new Stamp(bytes.length, mtime, fingerprint));
+            byte[] record = records.get(fingerprint);
+            if (record != null)
+                return CAPFileInfo.read(new DataInputStream(new ByteArrayInputStream(record)));
+        }
+        CAPFileInfo info = CAPFileInfo.of(CAPFile.fromBytes(bytes));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        info.write(new DataOutputStream(bos));
+        if (bos.size() <= 0xFFFF)
+            put(fingerprint, bos.toByteArray());
+        return info;
+    }
+
+    private synchronized void put(ByteBuffer fingerprint, byte[] record) {
+        byte[] old = records.put(fingerprint, record);
+        total += record.length - (old == null ? 0 : old.length);
+        Iterator<byte[]> eldest = records.values().iterator();
+        while (total > limit && eldest.hasNext()) {
+            total -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    // SHA-256 of the file, so that different files can not share a record
+    static ByteBuffer fingerprint(byte[] bytes) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Not possible", e);
+        }
+    }
+
+    private static ByteBuffer readFingerprint(DataInput in) throws IOException {
+        byte[] fingerprint = new byte[32];
+        in.readFully(fingerprint);
+        return ByteBuffer.wrap(fingerprint);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        Path tmp = Files.createTempFile(file.getParent(), "capfile", "cache");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            // Forget paths of evicted records
+            Map<String, Stamp> live = new HashMap<>();
+            for (Map.Entry<String, Stamp> e : paths.entrySet()) {
+                if (records.containsKey(e.getValue().fingerprint))
+                    live.put(e.getKey(), e.getValue());
+            }
+            out.writeInt(live.size());
+            for (Map.Entry<String, Stamp> e : live.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().size);
+                out.writeLong(e.getValue().mtime);
+                out.write(e.getValue().fingerprint.array());
+            }
+            out.writeInt(records.size());
+            for (Map.Entry<ByteBuffer, byte[]> e : records.entrySet()) {
+                out.write(e.getKey().array());
+                out.writeShort(e.getValue().length);
+                out.write(e.getValue());
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Everything CAPFile figures out about a CAP file, without the CAP file itself.
+ * Small enough to be cached, see {@link CAPFileCache}.
+ */
+public final class CAPFileInfo {
+    private final CAPPackage pkg;
+    private final Map<AID, String> applets;
+    private final List<CAPPackage> imports;
+    private final List<String> flags;
+    private final String javaCardVersion;
+    private final String globalPlatformVersion;
+    private final int codeLength;
+    private final byte[] sha1;
+    private final byte[] sha256;
+
+    private CAPFileInfo(CAPPackage pkg, Map<AID, String> applets, List<CAPPackage> imports, List<String> flags, String javaCardVersion, String globalPlatformVersion, int codeLength, byte[] sha1, byte[] sha256) {
+        this.pkg = pkg;
+        this.applets = Collections.unmodifiableMap(applets);
+        this.imports = Collections.unmodifiableList(imports);
+        this.flags = Collections.unmodifiableList(flags);
+        this.javaCardVersion = javaCardVersion;
+        this.globalPlatformVersion = globalPlatformVersion;
+        this.codeLength = codeLength;
+        this.sha1 = sha1;
+        this.sha256 = sha256;
+    }
+
+    public static CAPFileInfo of(CAPFile cap) {
+        Map<String, byte[]> hashes = cap.getLoadFileDataHashes("SHA-1", "SHA-256");
+        return new CAPFileInfo(cap.getPackage(), new LinkedHashMap<>(cap.getApplets()), new ArrayList<>(cap.getImports()), cap.getFlags(),
+                cap.guessJavaCardVersion().orElse(null), cap.guessGlobalPlatformVersion().orElse(null), cap.getCodeLength(), hashes.get("SHA-1"), hashes.get("SHA-256"));
+    }
+
+    public CAPPackage getPackage() {
+        return pkg;
+    }
+
+    public Map<AID, String> getApplets() {
+        return applets;
+    }
+
+    public List<CAPPackage> getImports() {
+        return imports;
+    }
+
+    public List<String> getFlags() {
+        return flags;
+    }
+
+    public Optional<String> guessJavaCardVersion() {
+        return Optional.ofNullable(javaCardVersion);
+    }
+
+    public Optional<String> guessGlobalPlatformVersion() {
+        return Optional.ofNullable(globalPlatformVersion);
+    }
+
+    public int getCodeLength() {
+        return codeLength;
+    }
+
+    // Only SHA-1 and SHA-256 are kept
+    public byte[] getLoadFileDataHash(String hash) {
+        if (hash.equalsIgnoreCase("SHA-1") || hash.equalsIgnoreCase("SHA1"))
+            return sha1.clone();
+        if (hash.equalsIgnoreCase("SHA-256"))
+            return sha256.clone();
+        throw new IllegalArgumentException("Not available: " + hash);
+    }
+
+    // One record for the CAP file, with the hashes already computed
+    public void report(ReportWriter out, Path file) throws IOException {
+        out.beginObject();
+        if (file != null)
+            out.name("file").value(file.toString());
+        out.name("package").value(pkg.getName().orElse(""));
+        out.name("aid").value(pkg.getAid().toString());
+        out.name("version").value(pkg.getVersionString());
+        out.name("flags").beginArray();
+        for (String f : flags)
+            out.value(f);
+        out.endArray();
+        if (javaCardVersion != null)
+            out.name("javacard").value(javaCardVersion);
+        if (globalPlatformVersion != null)
+            out.name("globalplatform").value(globalPlatformVersion);
+        out.name("applets").beginArray();
+        for (Map.Entry<AID, String> e : applets.entrySet()) {
+            out.beginObject().name("aid").value(e.getKey().toString());
+            if (e.getValue() != null)
+                out.name("name").value(e.getValue());
+            out.endObject();
+        }
+        out.endArray();
+        out.name("imports").beginArray();
+        for (CAPPackage p : imports)
+            out.beginObject().name("aid").value(p.getAid().toString()).name("version").value(p.getVersionString()).endObject();
+        out.endArray();
+        out.name("size").value(codeLength);
+        out.name("sha256").value(sha256);
+        out.name("sha1").value(sha1);
+        out.endObject();
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(pkg.getName().orElse(""));
+        aid(out, pkg.getAid());
+        out.writeByte(pkg.getMajor());
+        out.writeByte(pkg.getMinor());
+        out.writeByte(applets.size());
+        for (Map.Entry<AID, String> e : applets.entrySet()) {
+            aid(out, e.getKey());
+            out.writeUTF(e.getValue() == null ? "" : e.getValue());
+        }
+        out.writeByte(imports.size());
+        for (CAPPackage p : imports) {
+            aid(out, p.getAid());
+            out.writeByte(p.getMajor());
+            out.writeByte(p.getMinor());
+        }
+        out.writeByte(flags.size());
+        for (String f : flags)
+            out.writeUTF(f);
+        out.writeUTF(javaCardVersion == null ? "" : javaCardVersion);
+        out.writeUTF(globalPlatformVersion == null ? "" : globalPlatformVersion);
+        out.writeInt(codeLength);
+        out.write(sha1);
+        out.write(sha256);
+    }
+
+    static CAPFileInfo read(DataInput in) throws IOException {
+        String name = in.readUTF();
+        AID aid = aid(in);
+        CAPPackage pkg = new CAPPackage(aid, in.readByte(), in.readByte(), name.isEmpty() ? null : name);
+        Map<AID, String> applets = new LinkedHashMap<>();
+        for (int i = in.readUnsignedByte(); i > 0; i--) {
+            AID applet = aid(in);
+            String appletName = in.readUTF();
+            applets.put(applet, appletName.isEmpty() ? null : appletName);
+        }
+        List<CAPPackage> imports = new ArrayList<>();
+        for (int i = in.readUnsignedByte(); i > 0; i--) {
+            AID imp = aid(in);
+            imports.add(new CAPPackage(imp, in.readByte(), in.readByte()));
+        }
+        List<String> flags = new ArrayList<>();
+        for (int i = in.readUnsignedByte(); i > 0; i--)
+            flags.add(in.readUTF());
+        String jcv = in.readUTF();
+        String gpv = in.readUTF();
+        int codeLength = in.readInt();
+        byte[] sha1 = new byte[20];
+        in.readFully(sha1);
+        byte[] sha256 = new byte[32];
+        in.readFully(sha256);
+        return new CAPFileInfo(pkg, applets, imports, flags, jcv.isEmpty() ? null : jcv, gpv.isEmpty() ? null : gpv, codeLength, sha1, sha256);
+    }
+
+    private static void aid(DataOutput out, AID aid) throws IOException {
+        out.writeByte(aid.getLength());
+        out.write(aid.getBytes());
+    }
+
+    private static AID aid(DataInput in) throws IOException {
+        byte[] aid = new byte[in.readUnsignedByte()];
+        in.readFully(aid);
+        return new AID(aid);
+    }
+}
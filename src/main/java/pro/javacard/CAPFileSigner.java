@@ -30,12 +30,18 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.*;
 import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.spec.ECGenParameterSpec;
 import java.security.spec.ECParameterSpec;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class CAPFileSigner {
     static final ECParameterSpec secp256r1;
@@ -52,38 +58,67 @@ public class CAPFileSigner {
         }
     }
 
+    private final PrivateKey key;
+    private final String algorithm;
+    private final String sha1dap;
+    private final String sha256dap;
+    // Signature objects are reused, no matter which thread signs
+    private final Queue<Signature> signers = new ConcurrentLinkedQueue<>();
+
+    public CAPFileSigner(PrivateKey key) {
+        this.key = key;
+        if (key instanceof RSAPrivateKey && (((RSAPrivateKey) key).getModulus().bitLength() + 7) / 8 == 128) {
+            algorithm = "SHA1withRSA";
+            sha1dap = CAPFile.DAP_RSA_V1_SHA1_FILE;
+            sha256dap = CAPFile.DAP_RSA_V1_SHA256_FILE;
+        } else if (key instanceof ECPrivateKey && ((ECPrivateKey) key).getParams().equals(secp256r1)) {
+            algorithm = "SHA256withECDSA";
+            sha1dap = CAPFile.DAP_P256_SHA1_FILE;
+            sha256dap = CAPFile.DAP_P256_SHA256_FILE;
+        } else {
+            throw new IllegalArgumentException("Only 1024 bit RSA and P256 EC keys are supported!");
+        }
+    }
+
     // Variant 1
     public static void addSignature(CAPFile cap, PrivateKey key) throws GeneralSecurityException {
-        if (key instanceof RSAPrivateKey) {
-            RSAPrivateKey rkey = (RSAPrivateKey) key;
-            if ((rkey.getModulus().bitLength() + 7) / 8 == 128) {
-                Signature signer = Signature.getInstance("SHA1withRSA");
-                signer.initSign(key);
-                signer.update(cap.getLoadFileDataHash("SHA1"));
-                byte[] dap = signer.sign();
-                cap.entries.put("META-INF/" + CAPFile.DAP_RSA_V1_SHA1_FILE, dap);
-                signer.initSign(key);
-                signer.update(cap.getLoadFileDataHash("SHA-256"));
-                dap = signer.sign();
-                cap.entries.put("META-INF/" + CAPFile.DAP_RSA_V1_SHA256_FILE, dap);
-                return;
-            }
-        } else if (key instanceof ECPrivateKey) {
-            ECPrivateKey ekey = (ECPrivateKey) key;
-            if (ekey.getParams().equals(secp256r1)) {
-                Signature signer = Signature.getInstance("SHA256withECDSA");
-                signer.initSign(key);
-                signer.update(cap.getLoadFileDataHash("SHA-1"));
-                byte[] dap = signer.sign();
-                cap.entries.put("META-INF/" + CAPFile.DAP_P256_SHA1_FILE, dap);
-                signer.initSign(key);
-                signer.update(cap.getLoadFileDataHash("SHA-256"));
-                dap = signer.sign();
-                cap.entries.put("META-INF/" + CAPFile.DAP_P256_SHA256_FILE, dap);
-                return;
-            }
+        new CAPFileSigner(key).sign(cap);
+    }
+
+    public void sign(CAPFile cap) throws GeneralSecurityException {
+        // Both hashes in one pass over the Load File
+        Map<String, byte[]> hashes = cap.getLoadFileDataHashes("SHA-1", "SHA-256");
+        Signature signer = signers.poll();
+        if (signer == null)
+            signer = Signature.getInstance(algorithm);
+        signer.initSign(key);
+        signer.update(hashes.get("SHA-1"));
+        byte[] sha1 = signer.sign();
+        signer.initSign(key);
+        signer.update(hashes.get("SHA-256"));
+        byte[] sha256 = signer.sign();
+        signers.offer(signer);
+        cap.entries.put("META-INF/" + sha1dap, sha1);
+        cap.entries.put("META-INF/" + sha256dap, sha256);
+    }
+
+    // Signs the CAP file in place, replacing it atomically
+    public CAPFile sign(Path capfile) throws IOException, GeneralSecurityException {
+        CAPFile cap = CAPFile.fromFile(capfile);
+        sign(cap);
+        replace(cap, capfile);
+        return cap;
+    }
+
+    // Readers never see a half-written file
+    static void replace(CAPFile cap, Path capfile) throws IOException {
+        Path tmpfile = Files.createTempFile(capfile.toAbsolutePath().getParent(), "capfile", "unsigned");
+        try {
+            cap.store(Files.newOutputStream(tmpfile));
+            Files.move(tmpfile, capfile, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpfile);
         }
-        throw new IllegalArgumentException("Only 1024 bit RSA and P256 EC keys are supported!");
     }
 
     public static PrivateKey pem2privatekey(String f) throws IOException {
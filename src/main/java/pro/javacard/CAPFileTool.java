@@ -4,25 +4,35 @@ import org.bouncycastle.util.encoders.Hex;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class CAPFileTool {
 
     private final static ArrayList<String> help = new ArrayList<>();
     static {
-        help.add("    dump:   capfile <capfile>");
-        help.add("    verify: capfile -v <sdkpath> [<targetsdkpath>] <capfile> [<expfiles...>]");
-        help.add("    sign:   capfile -s <keyfile> <capfile>");
+        help.add("    dump:   capfile [-json|-cbor] <capfile>");
+        help.add("    verify: capfile -v [-fork] <sdkpath> [<targetsdkpath>] <capfiles...> [<expfiles...>]");
+        help.add("    sign:   capfile -s <keyfile> <capfiles, directories, globs or @listfile...>");
         help.add("    lfdbh:  capfile -sha256 <capfile>");
+        help.add("    batch:  capfile -batch [-cache <dir>] [-cbor] <capfiles, directories, globs or @listfile...>");
+        help.add("    link:   capfile -link <capfile> <expfiles, directories or JAR files...>");
+        help.add("    dap:    capfile -dap <keyfile or certificate>[,...] <capfiles, directories, globs or @listfile...>");
+        help.add("    matrix: capfile -matrix [-cache <dir>] <sdkpath> <targetsdkpaths or directories of SDK-s...> <capfiles...> [<expfiles...>]");
     }
     private static boolean has(Vector<String> args, String v) {
         for (String s : args) {
@@ -34,6 +44,14 @@ public class CAPFileTool {
         return false;
     }
 
+    private static Optional<String> option(Vector<String> args, String name) {
+        int i = args.indexOf(name);
+        if (i < 0 || i + 1 >= args.size())
+            return Optional.empty();
+        args.remove(i);
+        return Optional.of(args.remove(i));
+    }
+
     public static void main(String[] argv) {
         Vector<String> args = new Vector<>(Arrays.asList(argv));
 
@@ -48,24 +66,41 @@ public class CAPFileTool {
                 if (args.size() < 2)
                     fail("Usage:\n" + help.get(2));
                 String keyfile = args.remove(0);
-                Path capfile = Paths.get(args.remove(0));
-                CAPFile cap = CAPFile.fromBytes(Files.readAllBytes(capfile));
-                cap.dump(System.out);
-                try {
-                    PrivateKey signingKey = CAPFileSigner.pem2privatekey(keyfile);
-                    CAPFileSigner.addSignature(cap, signingKey);
-                    Path where = capfile.getParent();
-                    if (where == null)
-                        where = Paths.get(".");
-                    Path tmpfile = Files.createTempFile(where, "capfile", "unsigned");
-                    cap.store(Files.newOutputStream(tmpfile));
-                    Files.move(tmpfile, capfile, StandardCopyOption.ATOMIC_MOVE);
-                    System.out.println("Signed " + capfile);
-                } catch (GeneralSecurityException e) {
-                    fail("Failed to sign: " + e.getMessage());
+                if (args.size() == 1 && Files.isRegularFile(Paths.get(args.get(0)))) {
+                    Path capfile = Paths.get(args.remove(0));
+                    CAPFile cap = CAPFile.fromFile(capfile);
+                    cap.dump(System.out);
+                    try {
+                        PrivateKey signingKey = CAPFileSigner.pem2privatekey(keyfile);
+                        new CAPFileSigner(signingKey).sign(cap);
+                        CAPFileSigner.replace(cap, capfile);
+                        System.out.println("Signed " + capfile);
+                    } catch (GeneralSecurityException e) {
+                        fail("Failed to sign: " + e.getMessage());
+                    }
+                } else {
+                    // Key is loaded once, files are signed in parallel
+                    CAPFileSigner signer = new CAPFileSigner(CAPFileSigner.pem2privatekey(keyfile));
+                    List<Path> files = CAPFileBatch.collect(args);
+                    AtomicInteger signed = new AtomicInteger();
+                    long start = System.nanoTime();
+                    boolean ok = false;
+                    try {
+                        ok = CAPFileBatch.run(files, Runtime.getRuntime().availableProcessors(), (f, out) -> {
+                            CAPFile cap = signer.sign(f);
+                            signed.incrementAndGet();
+                            out.name("signed").value(cap.getLoadFileDataHash("SHA-256"));
+                        }, System.out);
+                    } catch (InterruptedException e) {
+                        fail("Interrupted");
+                    }
+                    double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+                    System.err.printf("Signed %d of %d CAP files in %.2fs (%.1f CAP/s)%n", signed.get(), files.size(), seconds, signed.get() / seconds);
+                    if (!ok)
+                        System.exit(1);
                 }
-
             } else if (has(args, "-v")) {
+                boolean fork = has(args, "-fork");
                 if (args.size() < 2)
                     fail("Usage:\n" + help.get(1));
                 final String sdkpath = args.remove(0);
@@ -79,7 +114,53 @@ public class CAPFileTool {
                     capfile = next;
                     targetsdkpath = sdkpath;
                 }
+                // More CAP files can follow the first one
+                List<Path> capfiles = new ArrayList<>();
+                capfiles.add(Paths.get(capfile));
+                while (args.size() > 0 && args.get(0).toLowerCase().endsWith(".cap"))
+                    capfiles.add(Paths.get(args.remove(0)));
                 Vector<File> exps = new Vector<>(args.stream().map(i -> new File(i)).collect(Collectors.toList()));
+                if (capfiles.size() > 1 || fork) {
+                    JavaCardSDK sdk = JavaCardSDK.detectSDK(sdkpath);
+                    JavaCardSDK target = JavaCardSDK.detectSDK(targetsdkpath);
+                    int workers = Runtime.getRuntime().availableProcessors();
+                    boolean ok = true;
+                    boolean failed = false;
+                    try {
+                        final List<VerifierFarm.Result> results;
+                        if (fork) {
+                            // SDK verifier in child processes
+                            try (VerifierProcessPool pool = VerifierProcessPool.open(sdk, Math.min(workers, capfiles.size()))) {
+                                results = pool.verifyAgainst(capfiles, target, exps);
+                            }
+                        } else {
+                            try (VerifierFarm farm = VerifierFarm.open(sdk, workers)) {
+                                results = farm.verifyAgainst(capfiles, target, exps);
+                            }
+                        }
+                        ReportWriter out = ReportWriter.json(System.out);
+                        for (VerifierFarm.Result r : results) {
+                            out.beginObject().name("file").value(r.getFile().toString()).name("verified").value(r.isVerified());
+                            if (r.getFailure().isPresent()) {
+                                // Could not be verified, not the fault of the CAP file
+                                failed = true;
+                                out.name("failure").value(String.valueOf(r.getFailure().get().getMessage()));
+                            } else if (!r.isVerified()) {
+                                ok = false;
+                                out.name("error").value(r.getError().get().getMessage());
+                            }
+                            out.endObject();
+                        }
+                        out.flush();
+                    } catch (InterruptedException e) {
+                        fail("Interrupted");
+                    }
+                    if (failed)
+                        System.exit(2);
+                    if (!ok)
+                        System.exit(1);
+                    return;
+                }
                 CAPFile cap = CAPFile.fromBytes(Files.readAllBytes(Paths.get(capfile)));
                 cap.dump(System.out);
                 try {
@@ -98,14 +179,150 @@ public class CAPFileTool {
                 String capfile = args.remove(0);
                 CAPFile cap = CAPFile.fromBytes(Files.readAllBytes(Paths.get(capfile)));
                 System.out.println(Hex.toHexString(cap.getLoadFileDataHash("SHA-256")));
+            } else if (has(args, "-batch")) {
+                Optional<String> cachedir = option(args, "-cache");
+                boolean cbor = has(args, "-cbor");
+                if (args.size() < 1)
+                    fail("Usage:\n" + help.get(4));
+                List<Path> files = CAPFileBatch.collect(args);
+                boolean ok = false;
+                try (CAPFileCache cache = cachedir.isPresent() ? CAPFileCache.open(Paths.get(cachedir.get())) : null) {
+                    CAPFileBatch.InfoJob job = f -> cache == null ? CAPFileInfo.of(CAPFile.fromFile(f)) : cache.get(f);
+                    // One JSON line or CBOR item per file
+                    ok = CAPFileBatch.report(files, Runtime.getRuntime().availableProcessors(), job, cbor ? ReportWriter::cbor : ReportWriter::json, System.out);
+                } catch (InterruptedException e) {
+                    fail("Interrupted");
+                }
+                if (!ok)
+                    System.exit(1);
+            } else if (has(args, "-link")) {
+                if (args.size() < 2)
+                    fail("Usage:\n" + help.get(5));
+                CAPFile cap = CAPFile.fromFile(Paths.get(args.remove(0)));
+                List<File> locations = args.stream().map(File::new).collect(Collectors.toList());
+                ExportCatalog catalog = new ExportCatalog();
+                List<ExportFile> exports = new ArrayList<>();
+                for (ExportCatalog.Export e : catalog.select(locations, cap.getImports()))
+                    exports.add(catalog.read(e));
+                List<String> problems = StructureChecker.check(cap);
+                if (problems.isEmpty())
+                    problems = LinkChecker.check(cap, exports);
+                problems.forEach(System.out::println);
+                if (!problems.isEmpty())
+                    fail("Linking failed");
+                System.out.println("Linked " + cap.getPackageName());
+            } else if (has(args, "-dap")) {
+                if (args.size() < 2)
+                    fail("Usage:\n" + help.get(6));
+                List<Path> keys = Arrays.stream(args.remove(0).split(",")).map(Paths::get).collect(Collectors.toList());
+                DAPVerifier verifier = DAPVerifier.fromFiles(keys);
+                List<Path> files = CAPFileBatch.collect(args);
+                AtomicBoolean valid = new AtomicBoolean(true);
+                boolean ok = false;
+                try {
+                    ok = CAPFileBatch.run(files, Runtime.getRuntime().availableProcessors(), (f, out) -> {
+                        CAPFile cap = CAPFile.fromFile(f);
+                        Map<String, Boolean> result = verifier.verify(cap);
+                        if (!DAPVerifier.isValid(result))
+                            valid.set(false);
+                        out.name("dap").beginObject();
+                        for (Map.Entry<String, Boolean> e : result.entrySet())
+                            out.name(e.getKey()).value(e.getValue());
+                        out.endObject();
+                        List<String> unknown = DAPVerifier.unknown(cap);
+                        if (!unknown.isEmpty()) {
+                            out.name("unknown").beginArray();
+                            for (String dap : unknown)
+                                out.value(dap);
+                            out.endArray();
+                        }
+                        out.name("valid").value(DAPVerifier.isValid(result));
+                    }, System.out);
+                } catch (InterruptedException e) {
+                    fail("Interrupted");
+                }
+                if (!ok || !valid.get())
+                    System.exit(1);
+            } else if (has(args, "-matrix")) {
+                Optional<String> cachedir = option(args, "-cache");
+                if (args.size() < 3)
+                    fail("Usage:\n" + help.get(7));
+                JavaCardSDK sdk = JavaCardSDK.detectSDK(args.remove(0));
+                if (sdk == null)
+                    fail("No SDK found");
+                // Target SDK-s up to the first CAP file, EXP files after the last one
+                List<Path> roots = new ArrayList<>();
+                while (args.size() > 0 && !args.get(0).toLowerCase().endsWith(".cap"))
+                    roots.add(Paths.get(args.remove(0)));
+                List<Path> capfiles = new ArrayList<>();
+                while (args.size() > 0 && args.get(0).toLowerCase().endsWith(".cap"))
+                    capfiles.add(Paths.get(args.remove(0)));
+                List<File> exps = args.stream().map(File::new).collect(Collectors.toList());
+                if (roots.isEmpty() || capfiles.isEmpty())
+                    fail("Usage:\n" + help.get(7));
+                Map<JavaCardSDK, List<VerifierFarm.Result>> matrix = null;
+                try (SDKRegistry registry = cachedir.isPresent() ? SDKRegistry.open(Paths.get(cachedir.get())) : new SDKRegistry();
+                     ExportCatalog catalog = cachedir.isPresent() ? ExportCatalog.open(Paths.get(cachedir.get())) : new ExportCatalog()) {
+                    List<JavaCardSDK> targets = registry.scan(roots);
+                    if (targets.isEmpty())
+                        fail("No target SDK-s found");
+                    int workers = Runtime.getRuntime().availableProcessors();
+                    try (VerifierFarm farm = VerifierFarm.open(sdk, Math.min(workers, targets.size() * capfiles.size()), catalog)) {
+                        matrix = farm.verifyMatrix(capfiles, targets, exps);
+                    }
+                } catch (InterruptedException e) {
+                    fail("Interrupted");
+                }
+                if (!grid(capfiles, matrix, System.out))
+                    System.exit(1);
             } else {
+                boolean json = has(args, "-json");
+                boolean cbor = has(args, "-cbor");
+                if (args.size() < 1)
+                    fail("Usage:\n" + help.get(0));
                 String capfile = args.remove(0);
-                CAPFile cap = CAPFile.fromBytes(Files.readAllBytes(Paths.get(capfile)));
-                cap.dump(System.out);
+                CAPFile cap = CAPFile.fromFile(Paths.get(capfile));
+                if (json || cbor) {
+                    ReportWriter out = cbor ? ReportWriter.cbor(System.out) : ReportWriter.json(System.out);
+                    cap.report(out);
+                    out.flush();
+                } else {
+                    cap.dump(System.out);
+                }
             }
         } catch (IOException | IllegalArgumentException e) {
             fail(e.getMessage());
+        } catch (UncheckedIOException e) {
+            // Corrupt component of a CAP file
+            fail(e.getCause().getMessage());
+        }
+    }
+
+    // One row per CAP file, one column per target SDK, followed by reasons of failures. Returns true if all passed
+    static boolean grid(List<Path> files, Map<JavaCardSDK, List<VerifierFarm.Result>> matrix, PrintStream out) {
+        List<String> names = matrix.keySet().stream().map(t -> t.getRoot().getName()).collect(Collectors.toList());
+        int width = files.stream().mapToInt(f -> f.toString().length()).max().orElse(0);
+        StringBuilder header = new StringBuilder(String.format("%-" + width + "s", ""));
+        names.forEach(n -> header.append("  ").append(n));
+        out.println(header);
+        List<String> failures = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            StringBuilder row = new StringBuilder(String.format("%-" + width + "s", files.get(i)));
+            int column = 0;
+            for (List<VerifierFarm.Result> results : matrix.values()) {
+                VerifierFarm.Result r = results.get(i);
+                String cell = r.isVerified() ? "pass" : r.getFailure().isPresent() ? "ERROR" : "FAIL";
+                row.append("  ").append(String.format("%-" + names.get(column).length() + "s", cell));
+                if (r.getFailure().isPresent())
+                    failures.add(files.get(i) + " on " + names.get(column) + ": could not verify: " + r.getFailure().get().getMessage());
+                else if (!r.isVerified())
+                    failures.add(files.get(i) + " on " + names.get(column) + ": " + r.getError().get().getMessage());
+                column++;
+            }
+            out.println(row.toString().trim());
         }
+        failures.forEach(out::println);
+        return failures.isEmpty();
     }
 
     private static void fail(String message) {
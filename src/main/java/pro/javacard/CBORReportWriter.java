@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// CBOR (RFC 8949) with indefinite length maps and arrays, so nothing needs to be counted up front
+final class CBORReportWriter implements ReportWriter {
+    private static final int UNSIGNED = 0;
+    private static final int NEGATIVE = 1;
+    private static final int BYTES = 2;
+    private static final int TEXT = 3;
+    private static final int ARRAY = 4;
+    private static final int MAP = 5;
+    private static final int INDEFINITE = 31;
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int BREAK = 0xFF;
+
+    private final OutputStream out;
+    private int depth = 0;
+
+    CBORReportWriter(OutputStream out) {
+        this.out = out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out);
+    }
+
+    // Initial byte and argument, in the shortest form
+    private void head(int major, long value) throws IOException {
+        int type = major << 5;
+        if (value < 24) {
+            out.write(type | (int) value);
+        } else if (value <= 0xFF) {
+            out.write(type | 24);
+            out.write((int) value);
+        } else if (value <= 0xFFFF) {
+            out.write(type | 25);
+            write(value, 2);
+        } else if (value <= 0xFFFFFFFFL) {
+            out.write(type | 26);
+            write(value, 4);
+        } else {
+            out.write(type | 27);
+            write(value, 8);
+        }
+    }
+
+    private void write(long value, int bytes) throws IOException {
+        for (int i = bytes - 1; i >= 0; i--)
+            out.write((int) (value >>> (8 * i)));
+    }
+
+    private void end() throws IOException {
+        if (depth == 0)
+            throw new IllegalStateException("Nothing to close");
+        out.write(BREAK);
+        depth--;
+    }
+
+    @Override
+    public ReportWriter beginObject() throws IOException {
+        out.write(MAP << 5 | INDEFINITE);
+        depth++;
+        return this;
+    }
+
+    @Override
+    public ReportWriter endObject() throws IOException {
+        end();
+        return this;
+    }
+
+    @Override
+    public ReportWriter beginArray() throws IOException {
+        out.write(ARRAY << 5 | INDEFINITE);
+        depth++;
+        return this;
+    }
+
+    @Override
+    public ReportWriter endArray() throws IOException {
+        end();
+        return this;
+    }
+
+    @Override
+    public ReportWriter name(String name) throws IOException {
+        return value(name);
+    }
+
+    @Override
+    public ReportWriter value(String value) throws IOException {
+        if (value == null) {
+            out.write(0xF6);
+            return this;
+        }
+        head(TEXT, utf8Length(value));
+        for (int i = 0; i < value.length(); i++)
+            i = JSONReportWriter.utf8(out, value, i);
+        return this;
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1; // replaced with ?
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public ReportWriter value(long value) throws IOException {
+        if (value >= 0)
+            head(UNSIGNED, value);
+        else
+            head(NEGATIVE, -1 - value);
+        return this;
+    }
+
+    @Override
+    public ReportWriter value(boolean value) throws IOException {
+        out.write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public ReportWriter value(byte[] value) throws IOException {
+        head(BYTES, value.length);
+        out.write(value);
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
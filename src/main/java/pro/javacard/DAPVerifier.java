@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.openssl.PEMKeyPair;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Verifies DAP signatures in META-INF of CAP files against a set of trusted public keys.
+ * <p>
+ * Signatures are checked the way {@link CAPFileSigner} makes them: RSA DAP-s are SHA1withRSA and
+ * P256 DAP-s SHA256withECDSA over the respective Load File Data Block hash. Instances are safe to
+ * share between threads.
+ */
+public final class DAPVerifier {
+    private static final Set<String> KNOWN = new HashSet<>(Arrays.asList(CAPFile.DAP_RSA_V1_SHA1_FILE, CAPFile.DAP_RSA_V1_SHA256_FILE, CAPFile.DAP_P256_SHA1_FILE, CAPFile.DAP_P256_SHA256_FILE));
+    private final List<PublicKey> keys;
+    // Signature objects are reused, no matter which thread verifies
+    private final Map<String, Queue<Signature>> verifiers = new ConcurrentHashMap<>();
+
+    public DAPVerifier(Collection<? extends PublicKey> keys) {
+        if (keys.isEmpty())
+            throw new IllegalArgumentException("No trusted keys");
+        this.keys = new ArrayList<>(keys);
+    }
+
+    public static DAPVerifier fromFiles(List<Path> files) throws IOException {
+        List<PublicKey> keys = new ArrayList<>();
+        for (Path f : files)
+            keys.add(pem2publickey(f));
+        return new DAPVerifier(keys);
+    }
+
+    // X.509 certificate (PEM or DER), PEM public key or PEM key pair
+    public static PublicKey pem2publickey(Path f) throws IOException {
+        byte[] bytes = Files.readAllBytes(f);
+        String text = new String(bytes, StandardCharsets.US_ASCII);
+        if (text.contains("-----BEGIN CERTIFICATE-----") || !text.contains("-----BEGIN ")) {
+            try {
+                return CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(bytes)).getPublicKey();
+            } catch (CertificateException e) {
+                throw new IllegalArgumentException("Can not read certificate " + f + ": " + e.getMessage(), e);
+            }
+        }
+        try (PEMParser pem = new PEMParser(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8))) {
+            Object ohh = pem.readObject();
+            if (ohh instanceof SubjectPublicKeyInfo) {
+                return new JcaPEMKeyConverter().getPublicKey((SubjectPublicKeyInfo) ohh);
+            } else if (ohh instanceof PEMKeyPair) {
+                return new JcaPEMKeyConverter().getKeyPair((PEMKeyPair) ohh).getPublic();
+            } else throw new IllegalArgumentException("Can not read public key from PEM: " + f);
+        }
+    }
+
+    // Result of every known META-INF/dap.* entry, false if no trusted key verifies it
+    public Map<String, Boolean> verify(CAPFile cap) throws GeneralSecurityException {
+        Map<String, Boolean> result = new TreeMap<>();
+        Map<String, byte[]> hashes = null;
+        for (String entry : cap.entries.keySet()) {
+            if (!entry.startsWith("META-INF/dap."))
+                continue;
+            String dap = entry.substring("META-INF/".length());
+            if (!KNOWN.contains(dap))
+                continue;
+            if (hashes == null)
+                hashes = cap.getLoadFileDataHashes("SHA-1", "SHA-256"); // Once per CAP
+            result.put(dap, verify(dap, hashes, cap.entries.get(entry)));
+        }
+        return result;
+    }
+
+    // META-INF/dap.* entries of an unknown kind, not verified and not counted as failed
+    public static List<String> unknown(CAPFile cap) {
+        List<String> result = new ArrayList<>();
+        for (String entry : cap.entries.keySet()) {
+            if (entry.startsWith("META-INF/dap.") && !KNOWN.contains(entry.substring("META-INF/".length())))
+                result.add(entry.substring("META-INF/".length()));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    // True if the CAP file has at least one DAP and all of them verify
+    public static boolean isValid(Map<String, Boolean> result) {
+        return !result.isEmpty() && !result.containsValue(false);
+    }
+
+    private boolean verify(String dap, Map<String, byte[]> hashes, byte[] signature) throws GeneralSecurityException {
+        final String algorithm;
+        final String keyType;
+        final byte[] hash;
+        switch (dap) {
+            case CAPFile.DAP_RSA_V1_SHA1_FILE:
+                algorithm = "SHA1withRSA";
+                keyType = "RSA";
+                hash = hashes.get("SHA-1");
+                break;
+            case CAPFile.DAP_RSA_V1_SHA256_FILE:
+                algorithm = "SHA1withRSA";
+                keyType = "RSA";
+                hash = hashes.get("SHA-256");
+                break;
+            case CAPFile.DAP_P256_SHA1_FILE:
+                algorithm = "SHA256withECDSA";
+                keyType = "EC";
+                hash = hashes.get("SHA-1");
+                break;
+            case CAPFile.DAP_P256_SHA256_FILE:
+                algorithm = "SHA256withECDSA";
+                keyType = "EC";
+                hash = hashes.get("SHA-256");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown DAP: " + dap);
+        }
+        Queue<Signature> pool = verifiers.computeIfAbsent(algorithm, a -> new ConcurrentLinkedQueue<>());
+        Signature verifier = pool.poll();
+        if (verifier == null)
+            verifier = Signature.getInstance(algorithm);
+        try {
+            for (PublicKey key : keys) {
+                if (!key.getAlgorithm().equals(keyType))
+                    continue;
+                verifier.initVerify(key);
+                verifier.update(hash);
+                try {
+                    if (verifier.verify(signature))
+                        return true;
+                } catch (SignatureException e) {
+                    // Malformed for this key, try the next one
+                }
+            }
+            return false;
+        } finally {
+            pool.offer(verifier);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Index of EXP files by package AID and version, for directories, JAR files and single EXP files.
+ * <p>
+ * A directory is scanned again only if it, one of its subdirectories or one of its EXP files has
+ * been modified; a JAR or EXP file only if it has been modified. The index can be kept in a single
+ * file in a cache directory, so that unchanged SDK-s and libraries are not scanned on every run.
+ */
+public final class ExportCatalog implements Closeable {
+    private static final int MAGIC = 0x43415045; // CAPE
+    private static final int FORMAT = 1;
+    private static final String FILENAME = "exports.cache";
+
+    // Package of an EXP file, possibly inside a JAR file
+    public static final class Export {
+        private final CAPPackage pkg;
+        private final File file;
+        private final String entry;
+
+        Export(CAPPackage pkg, File file, String entry) {
+            this.pkg = pkg;
+            this.file = file;
+            this.entry = entry;
+        }
+
+        public CAPPackage getPackage() {
+            return pkg;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        // Name of the EXP file in the JAR file
+        public Optional<String> getEntry() {
+            return Optional.ofNullable(entry);
+        }
+
+        @Override
+        public String toString() {
+            return file + (entry == null ? "" : "!" + entry);
+        }
+    }
+
+    private static final class Root {
+        final long mtime;
+        final Map<String, Long> stamps; // Modification times of everything a directory index depends on
+        final List<Export> exports;
+
+        Root(long mtime, Map<String, Long> stamps, List<Export> exports) {
+            this.mtime = mtime;
+            this.stamps = stamps;
+            this.exports = Collections.unmodifiableList(exports);
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Root> roots = new HashMap<>();
+    private final Map<String, ExportFile> parsed = new HashMap<>();
+
+    // Kept in memory only
+    public ExportCatalog() {
+        this.file = null;
+    }
+
+    private ExportCatalog(Path file) {
+        this.file = file;
+    }
+
+    public static ExportCatalog open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        ExportCatalog catalog = new ExportCatalog(dir.resolve(FILENAME));
+        if (Files.isRegularFile(catalog.file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(catalog.file)))) {
+                catalog.load(in);
+            } catch (IOException e) {
+                // Start from scratch with a broken or old catalog
+                catalog.roots.clear();
+            }
+        }
+        return catalog;
+    }
+
+    // EXP files in a directory (recursively), JAR file or EXP file
+    public synchronized List<Export> index(File location) throws IOException {
+        String key = location.getAbsolutePath();
+        Root root = roots.get(key);
+        if (root != null && current(location, root))
+            return root.exports;
+        if (location.isDirectory()) {
+            root = scanDirectory(location);
+        } else if (location.isFile() && location.getName().toLowerCase().endsWith(".jar")) {
+            root = new Root(location.lastModified(), Collections.emptyMap(), scanJar(location));
+        } else if (location.isFile() && location.getName().toLowerCase().endsWith(".exp")) {
+            List<Export> exports = new ArrayList<>();
+            try (InputStream in = new BufferedInputStream(new FileInputStream(location))) {
+                exports.add(new Export(ExportFile.parse(in).getPackage(), location, null));
+            }
+            root = new Root(location.lastModified(), Collections.emptyMap(), exports);
+        } else {
+            roots.remove(key);
+            return Collections.emptyList();
+        }
+        roots.put(key, root);
+        return root.exports;
+    }
+
+    // One EXP file for every import that has one: the same major version and preferably the same minor version,
+    // otherwise the highest minor version above it. Earlier locations win.
+    public List<Export> select(List<File> locations, List<CAPPackage> imports) throws IOException {
+        List<Export> all = new ArrayList<>();
+        for (File location : locations)
+            all.addAll(index(location));
+        List<Export> result = new ArrayList<>();
+        for (CAPPackage imp : imports) {
+            Export best = null;
+            for (Export e : all) {
+                CAPPackage p = e.getPackage();
+                if (!p.getAid().equals(imp.getAid()) || p.getMajor() != imp.getMajor() || p.getMinor() < imp.getMinor())
+                    continue;
+                if (best == null || better(p, best.getPackage(), imp))
+                    best = e;
+            }
+            if (best != null)
+                result.add(best);
+        }
+        return result;
+    }
+
+    private static boolean better(CAPPackage candidate, CAPPackage best, CAPPackage imp) {
+        if (best.getMinor() == imp.getMinor())
+            return false;
+        return candidate.getMinor() == imp.getMinor() || candidate.getMinor() > best.getMinor();
+    }
+
+    private static boolean current(File location, Root root) {
+        if (location.lastModified() != root.mtime)
+            return false;
+        for (Map.Entry<String, Long> e : root.stamps.entrySet()) {
+            if (new File(e.getKey()).lastModified() != e.getValue())
+                return false;
+        }
+        return true;
+    }
+
+    private static Root scanDirectory(File location) throws IOException {
+        Map<String, Long> stamps = new HashMap<>();
+        List<Export> exports = new ArrayList<>();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(location.toPath().toRealPath())) {
+            files = walk.sorted().collect(Collectors.toList());
+        }
+        for (Path p : files) {
+            File f = p.toFile();
+            if (f.isDirectory()) {
+                stamps.put(f.getPath(), f.lastModified());
+            } else if (f.getName().toLowerCase().endsWith(".exp")) {
+                stamps.put(f.getPath(), f.lastModified());
+                try (InputStream in = new BufferedInputStream(new FileInputStream(f))) {
+                    exports.add(new Export(ExportFile.parse(in).getPackage(), f, null));
+                } catch (IOException e) {
+                    // Not an export file, ignore
+                }
+            }
+        }
+        return new Root(location.lastModified(), stamps, exports);
+    }
+
+    private static List<Export> scanJar(File location) throws IOException {
+        List<Export> exports = new ArrayList<>();
+        try (JarFile jar = new JarFile(location)) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (!entry.getName().toLowerCase().endsWith(".exp"))
+                    continue;
+                try (InputStream in = new BufferedInputStream(jar.getInputStream(entry))) {
+                    exports.add(new Export(ExportFile.parse(in).getPackage(), location, entry.getName()));
+                } catch (IOException e) {
+                    // Not an export file, ignore
+                }
+            }
+        }
+        return exports;
+    }
+
+    // Parsed EXP file, remembered until modified
+    public ExportFile read(Export export) throws IOException {
+        String key = export + "@" + export.getFile().lastModified();
+        synchronized (parsed) {
+            ExportFile result = parsed.get(key);
+            if (result != null)
+                return result;
+        }
+        final ExportFile result;
+        if (export.getEntry().isPresent()) {
+            try (JarFile jar = new JarFile(export.getFile())) {
+                JarEntry entry = jar.getJarEntry(export.getEntry().get());
+                if (entry == null)
+                    throw new FileNotFoundException(export.toString());
+                try (InputStream in = new BufferedInputStream(jar.getInputStream(entry))) {
+                    result = ExportFile.parse(in);
+                }
+            }
+        } else {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(export.getFile()))) {
+                result = ExportFile.parse(in);
+            }
+        }
+        synchronized (parsed) {
+            parsed.put(key, result);
+        }
+        return result;
+    }
+
+    private void load(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT)
+            throw new IOException("Unknown catalog format");
+        for (int i = in.readInt(); i > 0; i--) {
+            String location = in.readUTF();
+            long mtime = in.readLong();
+            Map<String, Long> stamps = new HashMap<>();
+            for (int j = in.readInt(); j > 0; j--)
+                stamps.put(in.readUTF(), in.readLong());
+            List<Export> exports = new ArrayList<>();
+            for (int j = in.readInt(); j > 0; j--) {
+                File f = new File(in.readUTF());
+                String entry = in.readUTF();
+                byte[] aid = new byte[in.readUnsignedByte()];
+                in.readFully(aid);
+                int major = in.readUnsignedByte();
+                int minor = in.readUnsignedByte();
+                String name = in.readUTF();
+                exports.add(new Export(new CAPPackage(new AID(aid).intern(), major, minor, name.isEmpty() ? null : name), f, entry.isEmpty() ? null : entry));
+            }
+            roots.put(location, new Root(mtime, stamps, exports));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (file == null)
+            return;
+        Path tmp = Files.createTempFile(file.getParent(), "capfile", "exports");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeInt(roots.size());
+            for (Map.Entry<String, Root> r : roots.entrySet()) {
+                out.writeUTF(r.getKey());
+                out.writeLong(r.getValue().mtime);
+                out.writeInt(r.getValue().stamps.size());
+                for (Map.Entry<String, Long> s : r.getValue().stamps.entrySet()) {
+                    out.writeUTF(s.getKey());
+                    out.writeLong(s.getValue());
+                }
+                out.writeInt(r.getValue().exports.size());
+                for (Export e : r.getValue().exports) {
+                    out.writeUTF(e.file.getPath());
+                    out.writeUTF(e.entry == null ? "" : e.entry);
+                    out.writeByte(e.pkg.getAid().getLength());
+                    out.write(e.pkg.getAid().getBytes());
+                    out.writeByte(e.pkg.getMajor());
+                    out.writeByte(e.pkg.getMinor());
+                    out.writeUTF(e.pkg.getName().orElse(""));
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Export (EXP) file of a package, see JCVM 3.0.5 chapter 5.
+ * <p>
+ * Export file format 2.1 and 2.2 are supported, as well as 2.3 (JavaCard 3.1), which adds the list
+ * of referenced packages. Names of classes are given with dots, like in Java source.
+ */
+public final class ExportFile {
+    public static final int MAGIC = 0x00FACADE;
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PROTECTED = 0x0004;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_INTERFACE = 0x0200;
+    public static final int ACC_ABSTRACT = 0x0400;
+    public static final int ACC_SHAREABLE = 0x0800;
+    public static final int ACC_REMOTE = 0x1000;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASSREF = 7;
+    private static final int CONSTANT_PACKAGE = 13;
+
+    private final int minor;
+    private final int major;
+    private final CAPPackage pkg;
+    private final List<CAPPackage> referenced;
+    private final List<ExportClass> classes;
+
+    // Field or method
+    public static final class Member {
+        private final int token;
+        private final int flags;
+        private final String name;
+        private final String descriptor;
+
+        Member(int token, int flags, String name, String descriptor) {
+            this.token = token;
+            this.flags = flags;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        public int getToken() {
+            return token;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescriptor() {
+            return descriptor;
+        }
+
+        public boolean isStatic() {
+            return (flags & ACC_STATIC) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return name + descriptor;
+        }
+    }
+
+    public static final class ExportClass {
+        private final int token;
+        private final int flags;
+        private final String name;
+        private final List<String> supers;
+        private final List<String> interfaces;
+        private final List<Member> fields;
+        private final List<Member> methods;
+
+        ExportClass(int token, int flags, String name, List<String> supers, List<String> interfaces, List<Member> fields, List<Member> methods) {
+            this.token = token;
+            this.flags = flags;
+            this.name = name;
+            this.supers = Collections.unmodifiableList(supers);
+            this.interfaces = Collections.unmodifiableList(interfaces);
+            this.fields = Collections.unmodifiableList(fields);
+            this.methods = Collections.unmodifiableList(methods);
+        }
+
+        public int getToken() {
+            return token;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isInterface() {
+            return (flags & ACC_INTERFACE) != 0;
+        }
+
+        // All superclasses, nearest first
+        public List<String> getSupers() {
+            return supers;
+        }
+
+        public List<String> getInterfaces() {
+            return interfaces;
+        }
+
+        public List<Member> getFields() {
+            return fields;
+        }
+
+        public List<Member> getMethods() {
+            return methods;
+        }
+
+        // Static fields have their own tokens
+        public Optional<Member> getStaticField(int token) {
+            return fields.stream().filter(f -> f.isStatic() && f.getToken() == token).findFirst();
+        }
+
+        // Static methods and constructors share tokens
+        public Optional<Member> getStaticMethod(int token) {
+            return methods.stream().filter(m -> (m.isStatic() || m.getName().equals("<init>")) && m.getToken() == token).findFirst();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private ExportFile(int minor, int major, CAPPackage pkg, List<CAPPackage> referenced, List<ExportClass> classes) {
+        this.minor = minor;
+        this.major = major;
+        this.pkg = pkg;
+        this.referenced = Collections.unmodifiableList(referenced);
+        this.classes = Collections.unmodifiableList(classes);
+    }
+
+    public static ExportFile parse(byte[] bytes) throws IOException {
+        return parse(new ByteArrayInputStream(bytes));
+    }
+
+    public static ExportFile parse(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not an export file");
+            int minor = in.readUnsignedByte();
+            int major = in.readUnsignedByte();
+            if (major != 2)
+                throw new IOException("Unsupported export file format: " + major + "." + minor);
+            Object[] pool = new Object[in.readUnsignedShort()];
+            for (int i = 0; i < pool.length; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                    case CONSTANT_UTF8:
+                        byte[] utf8 = new byte[in.readUnsignedShort()];
+                        in.readFully(utf8);
+                        pool[i] = new String(utf8, StandardCharsets.UTF_8);
+                        break;
+                    case CONSTANT_INTEGER:
+                        pool[i] = in.readInt();
+                        break;
+                    case CONSTANT_CLASSREF:
+                        pool[i] = new int[]{in.readUnsignedShort()};
+                        break;
+                    case CONSTANT_PACKAGE:
+                        in.readUnsignedByte(); // flags
+                        int name = in.readUnsignedShort();
+                        int pminor = in.readUnsignedByte();
+                        int pmajor = in.readUnsignedByte();
+                        byte[] aid = new byte[in.readUnsignedByte()];
+                        in.readFully(aid);
+                        pool[i] = new Object[]{name, new CAPPackage(new AID(aid), pmajor, pminor)};
+                        break;
+                    default:
+                        throw new IOException("Invalid constant pool tag: " + tag);
+                }
+            }
+            Pool cp = new Pool(pool);
+            CAPPackage pkg = cp.pkg(in.readUnsignedShort());
+            List<CAPPackage> referenced = new ArrayList<>();
+            if (minor >= 3) {
+                for (int i = in.readUnsignedByte(); i > 0; i--)
+                    referenced.add(cp.pkg(in.readUnsignedShort()));
+            }
+            List<ExportClass> classes = new ArrayList<>();
+            for (int i = in.readUnsignedByte(); i > 0; i--) {
+                int token = in.readUnsignedByte();
+                int flags = in.readUnsignedShort();
+                String name = cp.classref(in.readUnsignedShort());
+                List<String> supers = new ArrayList<>();
+                for (int j = in.readUnsignedShort(); j > 0; j--)
+                    supers.add(cp.classref(in.readUnsignedShort()));
+                List<String> interfaces = new ArrayList<>();
+                for (int j = in.readUnsignedByte(); j > 0; j--)
+                    interfaces.add(cp.classref(in.readUnsignedShort()));
+                List<Member> fields = new ArrayList<>();
+                for (int j = in.readUnsignedShort(); j > 0; j--) {
+                    int ftoken = in.readUnsignedByte();
+                    int fflags = in.readUnsignedShort();
+                    String fname = cp.utf8(in.readUnsignedShort());
+                    String fdescriptor = cp.utf8(in.readUnsignedShort());
+                    // Only ConstantValue, not needed for linking
+                    for (int k = in.readUnsignedShort(); k > 0; k--) {
+                        in.readUnsignedShort();
+                        int length = in.readInt();
+                        if (length < 0 || in.skipBytes(length) != length)
+                            throw new IOException("Invalid attribute length: " + (length & 0xFFFFFFFFL));
+                    }
+                    fields.add(new Member(ftoken, fflags, fname, fdescriptor));
+                }
+                List<Member> methods = new ArrayList<>();
+                for (int j = in.readUnsignedShort(); j > 0; j--) {
+                    int mtoken = in.readUnsignedByte();
+                    int mflags = in.readUnsignedShort();
+                    methods.add(new Member(mtoken, mflags, cp.utf8(in.readUnsignedShort()), cp.utf8(in.readUnsignedShort())));
+                }
+                classes.add(new ExportClass(token, flags, name, supers, interfaces, fields, methods));
+            }
+            return new ExportFile(minor, major, pkg, referenced, classes);
+        } catch (EOFException e) {
+            throw new IOException("Truncated export file", e);
+        }
+    }
+
+    // Typed access to the parsed constant pool
+    private static final class Pool {
+        private final Object[] pool;
+
+        Pool(Object[] pool) {
+            this.pool = pool;
+        }
+
+        private Object get(int index) throws IOException {
+            if (index >= pool.length)
+                throw new IOException("Invalid constant pool index: " + index);
+            return pool[index];
+        }
+
+        String utf8(int index) throws IOException {
+            Object o = get(index);
+            if (!(o instanceof String))
+                throw new IOException("Not a CONSTANT_Utf8: " + index);
+            return (String) o;
+        }
+
+        String classref(int index) throws IOException {
+            Object o = get(index);
+            if (!(o instanceof int[]))
+                throw new IOException("Not a CONSTANT_Classref: " + index);
+            return utf8(((int[]) o)[0]).replace('/', '.');
+        }
+
+        CAPPackage pkg(int index) throws IOException {
+            Object o = get(index);
+            if (!(o instanceof Object[]))
+                throw new IOException("Not a CONSTANT_Package: " + index);
+            Object[] p = (Object[]) o;
+            CAPPackage pkg = (CAPPackage) p[1];
+            return new CAPPackage(pkg.getAid(), pkg.getMajor(), pkg.getMinor(), utf8((Integer) p[0]).replace('/', '.'));
+        }
+    }
+
+    public CAPPackage getPackage() {
+        return pkg;
+    }
+
+    // Export file format version
+    public String getFormatVersion() {
+        return major + "." + minor;
+    }
+
+    // Packages referenced from this package, only in format 2.3
+    public List<CAPPackage> getReferencedPackages() {
+        return referenced;
+    }
+
+    public List<ExportClass> getClasses() {
+        return classes;
+    }
+
+    public Optional<ExportClass> getExportClass(int token) {
+        return classes.stream().filter(c -> c.getToken() == token).findFirst();
+    }
+}
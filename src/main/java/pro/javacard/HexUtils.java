@@ -21,9 +21,30 @@
  */
 package pro.javacard;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 class HexUtils {
     // This code has been taken from Apache commons-codec 1.7 (License: Apache 2.0)
     private static final char[] UPPER_HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+    // Value of a hex digit, INVALID or SEPARATOR, for ASCII characters
+    private static final byte INVALID = -1;
+    private static final byte SEPARATOR = -2;
+    private static final byte[] DIGITS = new byte[128];
+
+    static {
+        Arrays.fill(DIGITS, INVALID);
+        for (int i = 0; i < 10; i++)
+            DIGITS['0' + i] = (byte) i;
+        for (int i = 0; i < 6; i++) {
+            DIGITS['A' + i] = (byte) (10 + i);
+            DIGITS['a' + i] = (byte) (10 + i);
+        }
+        for (char c : new char[]{' ', ':', ';', '\n', '\t'})
+            DIGITS[c] = SEPARATOR;
+    }
 
     public static String encodeHexString_imp(final byte[] data) {
 
@@ -38,30 +59,28 @@ class HexUtils {
     }
 
     public static byte[] decodeHexString_imp(String str) {
-        char data[] = str.toCharArray();
-        final int len = data.length;
+        final int len = str.length();
         if ((len & 0x01) != 0) {
             throw new IllegalArgumentException("Odd number of characters: " + str);
         }
         final byte[] out = new byte[len >> 1];
         // two characters form the hex value.
         for (int i = 0, j = 0; j < len; i++) {
-            int f = Character.digit(data[j], 16) << 4;
-            if (f < 0) {
-                throw new IllegalArgumentException("Illegal hex: " + data[j]);
-            }
-            j++;
-            f = f | Character.digit(data[j], 16);
-            if (f < 0) {
-                throw new IllegalArgumentException("Illegal hex: " + data[j]);
-            }
-            j++;
+            int f = digit(str.charAt(j++)) << 4;
+            f = f | digit(str.charAt(j++));
             out[i] = (byte) (f & 0xFF);
         }
         return out;
     }
 
     // End of copied code from commons-codec
+    private static int digit(char c) {
+        int d = c < 128 ? DIGITS[c] : INVALID;
+        if (d < 0)
+            throw new IllegalArgumentException("Illegal hex: " + c);
+        return d;
+    }
+
     public static byte[] hex2bin(final String hex) {
         return decodeHexString_imp(hex);
     }
@@ -70,10 +89,63 @@ class HexUtils {
         return encodeHexString_imp(bin);
     }
 
+    // Appends hex of the slice, without intermediate strings
+    public static StringBuilder bin2hex(final byte[] bin, int offset, int length, StringBuilder out) {
+        out.ensureCapacity(out.length() + length * 2);
+        for (int i = offset; i < offset + length; i++) {
+            out.append(UPPER_HEX[(0xF0 & bin[i]) >>> 4]);
+            out.append(UPPER_HEX[0x0F & bin[i]]);
+        }
+        return out;
+    }
+
+    public static <T extends Appendable> T bin2hex(final byte[] bin, int offset, int length, T out) {
+        try {
+            for (int i = offset; i < offset + length; i++) {
+                out.append(UPPER_HEX[(0xF0 & bin[i]) >>> 4]);
+                out.append(UPPER_HEX[0x0F & bin[i]]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out;
+    }
+
+    // Hex with spaces, colons, semicolons, tabs, newlines and 0x prefixes
     public static byte[] stringToBin(String s) {
-        s = s.toUpperCase().replaceAll(" ", "").replaceAll(":", "");
-        s = s.replaceAll("0X", "").replaceAll("\n", "").replaceAll("\t", "");
-        s = s.replaceAll(";", "");
-        return decodeHexString_imp(s);
+        final byte[] out = new byte[decode(s, null)];
+        decode(s, ByteBuffer.wrap(out));
+        return out;
+    }
+
+    // Decodes hex, skipping separators, into the buffer. Returns the number of bytes, only counted if out is null
+    public static int decode(CharSequence s, ByteBuffer out) {
+        final int len = s.length();
+        int count = 0;
+        int high = -1;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            int d = c < 128 ? DIGITS[c] : INVALID;
+            if (d == SEPARATOR)
+                continue;
+            // 0x prefix of a byte
+            if (c == '0' && high < 0 && i + 1 < len && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X')) {
+                i++;
+                continue;
+            }
+            if (d == INVALID)
+                throw new IllegalArgumentException("Illegal hex: " + c);
+            if (high < 0) {
+                high = d;
+            } else {
+                if (out != null)
+                    out.put((byte) (high << 4 | d));
+                count++;
+                high = -1;
+            }
+        }
+        if (high >= 0)
+            throw new IllegalArgumentException("Odd number of characters: " + s);
+        return count;
     }
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Compact JSON, one line per record
+final class JSONReportWriter implements ReportWriter {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private final OutputStream out;
+    // Per nesting level: if a value has been written, so the next one needs a comma
+    private boolean[] started = new boolean[8];
+    private int depth = 0;
+    private boolean named = false;
+
+    JSONReportWriter(OutputStream out) {
+        this.out = out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out);
+    }
+
+    private void separate() throws IOException {
+        if (named) {
+            named = false;
+            return;
+        }
+        if (depth > 0) {
+            if (started[depth])
+                out.write(',');
+            started[depth] = true;
+        }
+    }
+
+    private void open(char c) throws IOException {
+        separate();
+        out.write(c);
+        depth++;
+        if (depth == started.length)
+            started = Arrays.copyOf(started, depth * 2);
+        started[depth] = false;
+    }
+
+    private void close(char c) throws IOException {
+        if (depth == 0)
+            throw new IllegalStateException("Nothing to close");
+        out.write(c);
+        depth--;
+        if (depth == 0)
+            out.write('\n');
+    }
+
+    @Override
+    public ReportWriter beginObject() throws IOException {
+        open('{');
+        return this;
+    }
+
+    @Override
+    public ReportWriter endObject() throws IOException {
+        close('}');
+        return this;
+    }
+
+    @Override
+    public ReportWriter beginArray() throws IOException {
+        open('[');
+        return this;
+    }
+
+    @Override
+    public ReportWriter endArray() throws IOException {
+        close(']');
+        return this;
+    }
+
+    @Override
+    public ReportWriter name(String name) throws IOException {
+        separate();
+        string(name);
+        out.write(':');
+        named = true;
+        return this;
+    }
+
+    @Override
+    public ReportWriter value(String value) throws IOException {
+        separate();
+        if (value == null)
+            ascii("null");
+        else
+            string(value);
+        return this;
+    }
+
+    @Override
+    public ReportWriter value(long value) throws IOException {
+        separate();
+        ascii(Long.toString(value));
+        return this;
+    }
+
+    @Override
+    public ReportWriter value(boolean value) throws IOException {
+        separate();
+        ascii(value ? "true" : "false");
+        return this;
+    }
+
+    @Override
+    public ReportWriter value(byte[] value) throws IOException {
+        separate();
+        out.write('"');
+        for (byte b : value) {
+            out.write(HEX[(b & 0xF0) >>> 4]);
+            out.write(HEX[b & 0x0F]);
+        }
+        out.write('"');
+        return this;
+    }
+
+    private void ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++)
+            out.write(s.charAt(i));
+    }
+
+    // Escaped as needed, written as UTF-8
+    private void string(String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    ascii("\\\"");
+                    break;
+                case '\\':
+                    ascii("\\\\");
+                    break;
+                case '\n':
+                    ascii("\\n");
+                    break;
+                case '\r':
+                    ascii("\\r");
+                    break;
+                case '\t':
+                    ascii("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        ascii("\\u00");
+                        out.write(HEX[c >>> 4]);
+                        out.write(HEX[c & 0x0F]);
+                    } else if (c < 0x80) {
+                        out.write(c);
+                    } else {
+                        i = utf8(out, s, i);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    // Writes the character at i as UTF-8, returns the index of its last char
+    static int utf8(OutputStream out, CharSequence s, int i) throws IOException {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+            out.write(c);
+        } else if (c < 0x800) {
+            out.write(0xC0 | c >> 6);
+            out.write(0x80 | c & 0x3F);
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(++i));
+            out.write(0xF0 | cp >> 18);
+            out.write(0x80 | cp >> 12 & 0x3F);
+            out.write(0x80 | cp >> 6 & 0x3F);
+            out.write(0x80 | cp & 0x3F);
+        } else if (Character.isSurrogate(c)) {
+            out.write('?');
+        } else {
+            out.write(0xE0 | c >> 12);
+            out.write(0x80 | c >> 6 & 0x3F);
+            out.write(0x80 | c & 0x3F);
+        }
+        return i;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -39,6 +39,7 @@ import java.util.zip.ZipFile;
 
 public final class JavaCardSDK {
 
+    // Detected SDK-s are remembered, see SDKRegistry
     public static JavaCardSDK detectSDK(String path) {
         if (path == null || path.trim().length() == 0) {
             return null;
@@ -49,12 +50,17 @@ public final class JavaCardSDK {
             return null;
         }
 
+        return SDKRegistry.getDefault().detectSDK(root);
+    }
+
+    // Without the registry
+    static JavaCardSDK detect(File root) {
         Version version = detectSDKVersion(root);
         if (version == null) {
             return null;
         }
 
-        return new JavaCardSDK(root, version);
+        return new JavaCardSDK(root, version, null);
     }
 
     private static Version detectSDKVersion(File root) {
@@ -98,10 +104,12 @@ public final class JavaCardSDK {
 
     private final Version version;
     private final File path;
+    private volatile String release;
 
-    private JavaCardSDK(File root, Version version) {
+    JavaCardSDK(File root, Version version, String release) {
         this.path = root;
         this.version = version;
+        this.release = release;
     }
 
     public File getRoot() {
@@ -130,15 +138,21 @@ public final class JavaCardSDK {
         }
     }
 
+    // A new class loader on every call, see VerifierSession for a reusable one
     public ClassLoader getClassLoader() {
+        return newClassLoader();
+    }
+
+    URLClassLoader newClassLoader() {
         return AccessController.doPrivileged(new PrivilegedAction<URLClassLoader>() {
             public URLClassLoader run() {
                 try {
-                    if (version.isV3()) {
-                        return new URLClassLoader(new URL[]{getJar("tools.jar").toURI().toURL()}, this.getClass().getClassLoader());
-                    } else {
-                        return new URLClassLoader(new URL[]{getJar("offcardverifier.jar").toURI().toURL()}, this.getClass().getClassLoader());
-                    }
+                    // Every loader has its own copy of SDK classes and their static state
+                    List<File> jars = getToolJars();
+                    URL[] urls = new URL[jars.size()];
+                    for (int i = 0; i < urls.length; i++)
+                        urls[i] = jars.get(i).toURI().toURL();
+                    return new URLClassLoader(urls, this.getClass().getClassLoader());
                 } catch (MalformedURLException e) {
                     throw new RuntimeException("Could not load classes: " + e.getMessage());
                 }
@@ -147,10 +161,25 @@ public final class JavaCardSDK {
     }
 
     public String getRelease() {
+        // Only needs to be figured out once
+        String result = release;
+        if (result == null) {
+            result = detectRelease();
+            release = result;
+        }
+        return result;
+    }
+
+    // Release if already figured out, null otherwise
+    String knownRelease() {
+        return release;
+    }
+
+    private String detectRelease() {
         if (version == Version.V305) {
-            try {
+            try (URLClassLoader loader = newClassLoader()) {
                 // Get verifier class
-                Class<?> verifier = Class.forName("com.sun.javacard.offcardverifier.Verifier", false, getClassLoader());
+                Class<?> verifier = Class.forName("com.sun.javacard.offcardverifier.Verifier", false, loader);
 
                 // Check if 3.0.5u3 (or, hopefully, later)
                 try {
@@ -169,7 +198,7 @@ public final class JavaCardSDK {
                 }
                 // Assume 3.0.5u2 otherwise
                 return "3.0.5u2";
-            } catch (ReflectiveOperationException e) {
+            } catch (ReflectiveOperationException | IOException e) {
                 throw new RuntimeException("Could not figure out SDK release: " + e.getMessage());
             }
         } else {
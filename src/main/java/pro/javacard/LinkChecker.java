@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.util.*;
+
+/**
+ * Checks that a CAP file links against a set of export files, without an SDK.
+ * <p>
+ * Every import must have an export file with the same major and at least the same minor version.
+ * External classes referenced from the Constant Pool and Class components must exist, as must external
+ * static fields and methods. Virtual methods and instance fields can be inherited from other packages,
+ * so only their classes are checked. This is a quick pre-filter, not a replacement for the SDK verifier.
+ */
+public final class LinkChecker {
+
+    private LinkChecker() {
+    }
+
+    // Problems found, empty if the CAP file links
+    public static List<String> check(CAPFile cap, Collection<ExportFile> exports) {
+        List<String> problems = new ArrayList<>();
+        List<CAPPackage> imports = cap.getImports();
+        ExportFile[] resolved = new ExportFile[imports.size()];
+        for (int i = 0; i < imports.size(); i++) {
+            CAPPackage imp = imports.get(i);
+            Optional<ExportFile> best = Optional.empty();
+            for (ExportFile e : exports) {
+                CAPPackage p = e.getPackage();
+                if (p.getAid().equals(imp.getAid()) && (!best.isPresent() || better(p, best.get().getPackage(), imp)))
+                    best = Optional.of(e);
+            }
+            if (!best.isPresent()) {
+                problems.add("No export file for " + name(imp) + " v" + imp.getVersionString());
+                continue;
+            }
+            CAPPackage p = best.get().getPackage();
+            if (p.getMajor() != imp.getMajor() || p.getMinor() < imp.getMinor()) {
+                problems.add("Export file for " + name(imp) + " is v" + p.getVersionString() + ", CAP file needs v" + imp.getVersionString());
+                continue;
+            }
+            resolved[i] = best.get();
+        }
+
+        CAPComponents components = new CAPComponents(cap);
+        components.constantPool().ifPresent(cp -> {
+            for (int i = 0; i < cp.count(); i++) {
+                String entry = "Constant pool entry " + i;
+                switch (cp.tag(i)) {
+                    case CAPComponents.ConstantPool.CLASSREF:
+                    case CAPComponents.ConstantPool.INSTANCE_FIELDREF:
+                    case CAPComponents.ConstantPool.VIRTUAL_METHODREF:
+                    case CAPComponents.ConstantPool.SUPER_METHODREF:
+                        int ref = cp.classRef(i);
+                        if (CAPComponents.isExternal(ref))
+                            resolve(entry, resolved, CAPComponents.packageToken(ref), CAPComponents.classToken(ref), problems);
+                        break;
+                    case CAPComponents.ConstantPool.STATIC_FIELDREF:
+                    case CAPComponents.ConstantPool.STATIC_METHODREF:
+                        if (!cp.isExternalStatic(i))
+                            break;
+                        boolean field = cp.tag(i) == CAPComponents.ConstantPool.STATIC_FIELDREF;
+                        int token = cp.token(i);
+                        resolve(entry, resolved, cp.staticPackageToken(i), cp.staticClassToken(i), problems).ifPresent(c -> {
+                            Optional<ExportFile.Member> member = field ? c.getStaticField(token) : c.getStaticMethod(token);
+                            if (!member.isPresent())
+                                problems.add(entry + ": no static " + (field ? "field" : "method") + " with token " + token + " in " + c.getName());
+                        });
+                        break;
+                    default:
+                        problems.add(entry + ": invalid tag " + cp.tag(i));
+                }
+            }
+        });
+        components.classes().ifPresent(classes -> {
+            while (classes.next()) {
+                String entry = (classes.isInterface() ? "Interface" : "Class") + " at " + classes.offset();
+                if (classes.isInterface()) {
+                    for (int i = 0; i < classes.interfaceCount(); i++) {
+                        int ref = classes.superInterface(i);
+                        if (CAPComponents.isExternal(ref))
+                            resolve(entry, resolved, CAPComponents.packageToken(ref), CAPComponents.classToken(ref), problems);
+                    }
+                } else {
+                    int ref = classes.superClassRef();
+                    if (ref != 0xFFFF && CAPComponents.isExternal(ref)) // 0xFFFF is java.lang.Object
+                        resolve(entry, resolved, CAPComponents.packageToken(ref), CAPComponents.classToken(ref), problems);
+                }
+            }
+        });
+        return problems;
+    }
+
+    // Same major version first, then highest minor version
+    private static boolean better(CAPPackage candidate, CAPPackage best, CAPPackage imp) {
+        if ((candidate.getMajor() == imp.getMajor()) != (best.getMajor() == imp.getMajor()))
+            return candidate.getMajor() == imp.getMajor();
+        return candidate.getMinor() > best.getMinor();
+    }
+
+    private static Optional<ExportFile.ExportClass> resolve(String entry, ExportFile[] resolved, int pkg, int cls, List<String> problems) {
+        if (pkg >= resolved.length) {
+            problems.add(entry + ": invalid package token " + pkg);
+            return Optional.empty();
+        }
+        // Missing packages are reported once
+        if (resolved[pkg] == null)
+            return Optional.empty();
+        Optional<ExportFile.ExportClass> c = resolved[pkg].getExportClass(cls);
+        if (!c.isPresent())
+            problems.add(entry + ": no class with token " + cls + " in " + name(resolved[pkg].getPackage()));
+        return c;
+    }
+
+    private static String name(CAPPackage p) {
+        return p.getName().orElse(WellKnownAID.getName(p.getAid()).orElse(p.getAid().toString()));
+    }
+}
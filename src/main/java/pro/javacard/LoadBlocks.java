@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Load File of a CAP file, split into blocks for GlobalPlatform LOAD commands.
+ * <p>
+ * The Load File is the optional DAP Block (E2) followed by the Load File Data Block (C4), see GPCS 2.3 11.6.2.
+ * Blocks are copied straight from the components into a caller supplied buffer, so a LoadBlocks
+ * instance can be prepared once and reused for any number of cards without allocation.
+ */
+public final class LoadBlocks {
+    private final int blockSize;
+    private final byte[][] parts;
+    private final int[] starts; // offset of each part in the Load File
+    private final int length;
+
+    LoadBlocks(int blockSize, byte[] prefix, List<byte[]> components) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        this.blockSize = blockSize;
+        List<byte[]> all = new ArrayList<>();
+        all.add(prefix);
+        all.addAll(components);
+        parts = all.toArray(new byte[0][]);
+        starts = new int[parts.length];
+        int offset = 0;
+        for (int i = 0; i < parts.length; i++) {
+            starts[i] = offset;
+            offset += parts[i].length;
+        }
+        length = offset;
+    }
+
+    static LoadBlocks of(int blockSize, List<byte[]> components, AID sd, byte[] dap) {
+        ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+        if (sd != null) {
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            tlv(block, 0x4F, sd.getBytes());
+            tlv(block, 0xC3, dap);
+            tlv(prefix, 0xE2, block.toByteArray());
+        }
+        int code = 0;
+        for (byte[] c : components)
+            code += c.length;
+        prefix.write(0xC4);
+        length(prefix, code);
+        return new LoadBlocks(blockSize, prefix.toByteArray(), components);
+    }
+
+    private static void tlv(ByteArrayOutputStream out, int tag, byte[] value) {
+        out.write(tag);
+        length(out, value.length);
+        out.write(value, 0, value.length);
+    }
+
+    // BER-TLV length
+    private static void length(ByteArrayOutputStream out, int length) {
+        if (length < 0x80) {
+            out.write(length);
+        } else if (length <= 0xFF) {
+            out.write(0x81);
+            out.write(length);
+        } else if (length <= 0xFFFF) {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length);
+        } else {
+            out.write(0x83);
+            out.write(length >> 16);
+            out.write(length >> 8);
+            out.write(length);
+        }
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    // Length of the complete Load File
+    public int getLength() {
+        return length;
+    }
+
+    public int getBlockCount() {
+        return (length + blockSize - 1) / blockSize;
+    }
+
+    public int getBlockLength(int block) {
+        check(block);
+        return Math.min(blockSize, length - block * blockSize);
+    }
+
+    public boolean isLast(int block) {
+        return block == getBlockCount() - 1;
+    }
+
+    // Puts the contents of the block into the buffer
+    public void writeBlock(int block, ByteBuffer out) {
+        int from = block * blockSize;
+        int to = from + getBlockLength(block);
+        int part = part(from);
+        while (from < to) {
+            int offset = from - starts[part];
+            int n = Math.min(parts[part].length - offset, to - from);
+            out.put(parts[part], offset, n);
+            from += n;
+            part++;
+        }
+    }
+
+    // Puts a complete LOAD command (80 E8 P1 P2 Lc data) for the block into the buffer
+    public void writeAPDU(int block, ByteBuffer out) {
+        int len = getBlockLength(block);
+        if (len > 255)
+            throw new IllegalStateException("Block size too large for a short APDU: " + blockSize);
+        if (block > 0xFF)
+            throw new IllegalStateException("Block number too large for P2: " + block);
+        out.put((byte) 0x80);
+        out.put((byte) 0xE8);
+        out.put((byte) (isLast(block) ? 0x80 : 0x00));
+        out.put((byte) block);
+        out.put((byte) len);
+        writeBlock(block, out);
+    }
+
+    // Read-only views of the parts of the Load File that make up the block, without copying
+    public ByteBuffer[] getBlockBuffers(int block) {
+        int from = block * blockSize;
+        int to = from + getBlockLength(block);
+        int first = part(from);
+        int last = part(to - 1);
+        ByteBuffer[] result = new ByteBuffer[last - first + 1];
+        for (int i = first; i <= last; i++) {
+            int start = Math.max(from, starts[i]) - starts[i];
+            int end = Math.min(to, starts[i] + parts[i].length) - starts[i];
+            result[i - first] = ByteBuffer.wrap(parts[i], start, end - start).slice().asReadOnlyBuffer();
+        }
+        return result;
+    }
+
+    // Index of the part containing the given offset of the Load File
+    private int part(int offset) {
+        for (int i = 0; i < parts.length; i++) {
+            if (offset < starts[i] + parts[i].length)
+                return i;
+        }
+        return parts.length - 1;
+    }
+
+    private void check(int block) {
+        if (block < 0 || block >= getBlockCount())
+            throw new IndexOutOfBoundsException("Invalid block: " + block);
+    }
+}
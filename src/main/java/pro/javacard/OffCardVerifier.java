@@ -22,8 +22,6 @@
 package pro.javacard;
 
 import java.io.*;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Enumeration;
@@ -64,59 +62,21 @@ public class OffCardVerifier {
 
     // Verify a given CAP file against a set of EXP files
     public void verify(File f, Vector<File> exps) throws VerifierError {
-        File tmp = makeTemp();
-        try (InputStream in = new FileInputStream(f)) {
-            CAPFile cap = CAPFile.fromStream(in);
-
-            // Get verifier class
-            Class<?> verifier = Class.forName("com.sun.javacard.offcardverifier.Verifier", true, sdk.getClassLoader());
-
-            final Vector<File> expfiles = new Vector<>();
-            for (File e : exps) {
-                // collect all export files to a list
-                if (e.isDirectory()) {
-                    Files.walkFileTree(e.toPath().toRealPath(), new SimpleFileVisitor<Path>() {
-                        @Override
-                        public FileVisitResult visitFile(java.nio.file.Path file, BasicFileAttributes attrs)
-                                throws IOException {
-                            if (file.toString().endsWith(".exp")) {
-                                expfiles.add(file.toFile());
-                            }
-                            return FileVisitResult.CONTINUE;
-                        }
-                    });
-                } else if (e.isFile()) {
-                    if (e.toString().endsWith(".exp")) {
-                        expfiles.add(e);
-                    } else if (e.toString().endsWith(".jar")) {
-                        expfiles.addAll(extractExps(e, tmp));
-                    }
-                }
-            }
+        try (VerifierSession session = session()) {
+            session.verify(f, exps);
+        }
+    }
 
-            String packagename = cap.getPackageName();
+    // Keeps the verifier loaded for verifying many CAP files
+    public VerifierSession session() {
+        return session(new ExportCatalog());
+    }
 
-            try (FileInputStream input = new FileInputStream(f)) {
-                // 3.0.5u1 still uses old signature
-                if (sdk.getRelease().equals("3.0.5u3") || sdk.getRelease().equals("3.0.5u2") || sdk.getRelease().equals("3.1.0")) {
-                    Method m = verifier.getMethod("verifyCap", File.class, String.class, Vector.class);
-                    m.invoke(null, f, packagename, expfiles);
-                } else {
-                    Method m = verifier.getMethod("verifyCap", FileInputStream.class, String.class, Vector.class);
-                    m.invoke(null, input, packagename, expfiles);
-                }
-            } catch (InvocationTargetException e) {
-                throw new VerifierError(e.getTargetException().getMessage(), e.getTargetException());
-            }
-        } catch (ReflectiveOperationException | IOException e) {
-            throw new RuntimeException("Could not run verifier: " + e.getMessage());
-        } finally {
-            // Clean extracted exps
-            rmminusrf(tmp.toPath());
-        }
+    public VerifierSession session(ExportCatalog catalog) {
+        return new VerifierSession(sdk, catalog);
     }
 
-    private static void rmminusrf(Path path) {
+    static void rmminusrf(Path path) {
         try {
             Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
                 @Override
@@ -145,15 +105,7 @@ public class OffCardVerifier {
         }
     }
 
-    private File makeTemp() {
-        try {
-            return Files.createTempDirectory("capfile").toFile();
-        } catch (IOException e) {
-            throw new RuntimeException("Can not make temporary folder", e);
-        }
-    }
-
-    private static File under(File out, String name) {
+    static File under(File out, String name) {
         Path p = Paths.get(out.getAbsolutePath(), name);
         if (!p.startsWith(out.getAbsolutePath()))
             throw new IllegalArgumentException("Invalid path in JAR: " + name);
@@ -169,7 +121,7 @@ public class OffCardVerifier {
                 if (entry.getName().toLowerCase().endsWith(".exp")) {
                     File f = under(out, entry.getName());
                     if (!f.exists()) {
-                        if (!f.getParentFile().mkdirs())
+                        if (!f.getParentFile().isDirectory() && !f.getParentFile().mkdirs())
                             throw new IOException("Failed to create folder: " + f.getParentFile());
                         f = under(out, entry.getName());
                     }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streaming writer of structured reports, like {@link CAPFileInfo#report(ReportWriter, java.nio.file.Path)}.
+ * <p>
+ * Values are written to the underlying stream as they come, nothing is kept in memory but the
+ * nesting. Every top level object is a record: a line of JSON or an item of a CBOR sequence (RFC 8742).
+ */
+public interface ReportWriter extends Closeable {
+    ReportWriter beginObject() throws IOException;
+
+    ReportWriter endObject() throws IOException;
+
+    ReportWriter beginArray() throws IOException;
+
+    ReportWriter endArray() throws IOException;
+
+    // Name of the next value in an object
+    ReportWriter name(String name) throws IOException;
+
+    ReportWriter value(String value) throws IOException;
+
+    ReportWriter value(long value) throws IOException;
+
+    ReportWriter value(boolean value) throws IOException;
+
+    // Lowercase hex string in JSON, byte string in CBOR
+    ReportWriter value(byte[] value) throws IOException;
+
+    void flush() throws IOException;
+
+    static ReportWriter json(OutputStream out) {
+        return new JSONReportWriter(out);
+    }
+
+    static ReportWriter cbor(OutputStream out) {
+        return new CBORReportWriter(out);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Remembers detected JavaCard SDK-s with their version and release.
+ * <p>
+ * An SDK is detected again only if one of the JAR files that tell versions apart has been added,
+ * removed or modified. {@link JavaCardSDK#detectSDK(String)} uses an in-memory registry, a registry
+ * opened with a cache directory is kept between runs as a single file in it.
+ */
+public final class SDKRegistry implements Closeable {
+    private static final int MAGIC = 0x43415053; // CAPS
+    private static final int FORMAT = 2;
+    private static final String FILENAME = "sdks.cache";
+    // Files looked at by JavaCardSDK.detectSDKVersion() and getRelease()
+    private static final String[] MARKERS = {"lib/tools.jar", "lib/api_classic.jar", "lib/api_classic-3.1.0.jar", "lib/api21.jar", "lib/api.jar", "lib/converter.jar", "lib/offcardverifier.jar", "bin/api.jar"};
+
+    private static final SDKRegistry DEFAULT = new SDKRegistry(null);
+
+    private static final class Entry {
+        final long[] stamps; // modification time and length of each marker
+        final JavaCardSDK sdk; // null if not an SDK
+
+        Entry(long[] stamps, JavaCardSDK sdk) {
+            this.stamps = stamps;
+            this.sdk = sdk;
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    // Kept in memory only
+    public SDKRegistry() {
+        this(null);
+    }
+
+    private SDKRegistry(Path file) {
+        this.file = file;
+    }
+
+    static SDKRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    public static SDKRegistry open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        SDKRegistry registry = new SDKRegistry(dir.resolve(FILENAME));
+        if (Files.isRegularFile(registry.file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(registry.file)))) {
+                registry.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                // Start from scratch with a broken or old registry
+                registry.entries.clear();
+            }
+        }
+        return registry;
+    }
+
+    public JavaCardSDK detectSDK(String path) {
+        if (path == null || path.trim().length() == 0)
+            return null;
+        File root = new File(path);
+        if (!root.isDirectory())
+            return null;
+        return detectSDK(root);
+    }
+
+    JavaCardSDK detectSDK(File root) {
+        String key = root.getAbsolutePath();
+        long[] stamps = stamps(root);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && Arrays.equals(entry.stamps, stamps))
+                return entry.sdk;
+        }
+        JavaCardSDK sdk = JavaCardSDK.detect(root);
+        synchronized (this) {
+            entries.put(key, new Entry(stamps, sdk));
+        }
+        return sdk;
+    }
+
+    // SDK-s in the given directories and their immediate subdirectories
+    public List<JavaCardSDK> scan(List<Path> roots) throws IOException {
+        List<JavaCardSDK> result = new ArrayList<>();
+        for (Path root : roots) {
+            JavaCardSDK sdk = detectSDK(root.toFile());
+            if (sdk != null) {
+                result.add(sdk);
+                continue;
+            }
+            if (!Files.isDirectory(root))
+                continue;
+            List<Path> dirs;
+            try (Stream<Path> list = Files.list(root)) {
+                dirs = list.filter(Files::isDirectory).sorted().collect(Collectors.toList());
+            }
+            for (Path dir : dirs) {
+                sdk = detectSDK(dir.toFile());
+                if (sdk != null)
+                    result.add(sdk);
+            }
+        }
+        return result;
+    }
+
+    // All SDK-s detected so far, oldest version first
+    public synchronized List<JavaCardSDK> getSDKs() {
+        return entries.values().stream().map(e -> e.sdk).filter(Objects::nonNull)
+                .sorted(Comparator.comparing(JavaCardSDK::getVersion).thenComparing(s -> s.getRoot().getAbsolutePath()))
+                .collect(Collectors.toList());
+    }
+
+    private static long[] stamps(File root) {
+        long[] stamps = new long[MARKERS.length * 2];
+        for (int i = 0; i < MARKERS.length; i++) {
+            File f = new File(root, MARKERS[i]);
+            // Missing files are 0
+            stamps[i * 2] = f.lastModified();
+            stamps[i * 2 + 1] = f.length();
+        }
+        return stamps;
+    }
+
+    private void load(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT)
+            throw new IOException("Unknown registry format");
+        for (int i = in.readInt(); i > 0; i--) {
+            String path = in.readUTF();
+            long[] stamps = new long[MARKERS.length * 2];
+            for (int j = 0; j < stamps.length; j++)
+                stamps[j] = in.readLong();
+            String version = in.readUTF();
+            String release = in.readUTF();
+            JavaCardSDK sdk = version.isEmpty() ? null : new JavaCardSDK(new File(path), JavaCardSDK.Version.valueOf(version), release.isEmpty() ? null : release);
+            entries.put(path, new Entry(stamps, sdk));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (file == null)
+            return;
+        Path tmp = Files.createTempFile(file.getParent(), "capfile", "sdks");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                out.writeUTF(e.getKey());
+                for (long stamp : e.getValue().stamps)
+                    out.writeLong(stamp);
+                JavaCardSDK sdk = e.getValue().sdk;
+                out.writeUTF(sdk == null ? "" : sdk.getVersion().name());
+                // Release is kept once something has asked for it
+                String release = sdk == null ? null : sdk.knownRelease();
+                out.writeUTF(release == null ? "" : release);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
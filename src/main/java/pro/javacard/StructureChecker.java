@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks the structure of CAP file components (JCVM 3.0.5 chapter 6), without trusting any offset or count.
+ * <p>
+ * Every component must have the right tag and a size that matches its contents, and every table in
+ * it must end where the component ends. Sizes and counts in the Directory component are checked
+ * against the components, and offsets into the Class and Method components against their sizes.
+ * ZIP entries can come in any order, so only the presence of required components is checked;
+ * CAPFile puts them in load order. Everything is done in a single pass over the components,
+ * which makes this cheap enough to run before any real verification.
+ */
+public final class StructureChecker {
+    static final String[] NAMES = {null, "Header", "Directory", "Applet", "Import", "ConstantPool", "Class", "Method", "StaticField", "RefLocation", "Export", "Descriptor", "Debug"};
+    private static final int[] REQUIRED = {1, 2, 4, 5, 6, 7, 8, 9, 11};
+    private static final int BROKEN = -2; // size of a component with a bad tag or size, already reported
+
+    private StructureChecker() {
+    }
+
+    // Bounds checked reader of a component, after tag and size
+    private static final class Reader {
+        final byte[] data;
+        int pos = 3;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int u1() {
+            if (pos >= data.length)
+                throw new IndexOutOfBoundsException();
+            return data[pos++] & 0xFF;
+        }
+
+        int u2() {
+            return u1() << 8 | u1();
+        }
+
+        void skip(int n) {
+            if (pos + n > data.length)
+                throw new IndexOutOfBoundsException();
+            pos += n;
+        }
+
+        boolean done() {
+            return pos == data.length;
+        }
+    }
+
+    // Problems found, empty if the CAP file is structurally sound
+    public static List<String> check(CAPFile cap) {
+        List<String> problems = new ArrayList<>();
+        byte[][] components = new byte[NAMES.length][];
+        // Sizes of info items, -1 if not known to be valid, BROKEN if badly framed
+        int[] sizes = new int[NAMES.length];
+        for (int tag = 1; tag < NAMES.length; tag++) {
+            byte[] c = cap.getComponent(NAMES[tag]);
+            sizes[tag] = -1;
+            if (c == null)
+                continue;
+            if (frame(NAMES[tag], tag, c, problems)) {
+                components[tag] = c;
+                sizes[tag] = c.length - 3;
+            } else {
+                sizes[tag] = BROKEN;
+            }
+        }
+        for (int tag : REQUIRED) {
+            if (cap.getComponent(NAMES[tag]) == null)
+                problems.add("Missing " + NAMES[tag] + " component");
+        }
+        for (int tag = 1; tag < NAMES.length; tag++) {
+            if (components[tag] != null)
+                contents(tag, components, sizes, problems);
+        }
+        return problems;
+    }
+
+    // Checks a single component on its own, null if fine
+    static String check(int tag, byte[] component) {
+        List<String> problems = new ArrayList<>();
+        if (frame(NAMES[tag], tag, component, problems)) {
+            byte[][] components = new byte[NAMES.length][];
+            components[tag] = component;
+            int[] sizes = new int[NAMES.length];
+            Arrays.fill(sizes, -1);
+            contents(tag, components, sizes, problems);
+        }
+        return problems.isEmpty() ? null : String.join("; ", problems);
+    }
+
+    // Tag and size of the component
+    private static boolean frame(String name, int tag, byte[] c, List<String> problems) {
+        if (c.length < 3) {
+            problems.add(name + " component is too short: " + c.length);
+            return false;
+        }
+        if ((c[0] & 0xFF) != tag) {
+            problems.add(name + " component has tag " + (c[0] & 0xFF) + " instead of " + tag);
+            return false;
+        }
+        int size = (c[1] & 0xFF) << 8 | (c[2] & 0xFF);
+        if (size != c.length - 3) {
+            problems.add(name + " component size " + size + " does not match its length " + (c.length - 3));
+            return false;
+        }
+        return true;
+    }
+
+    private static void contents(int tag, byte[][] components, int[] sizes, List<String> problems) {
+        String name = NAMES[tag];
+        Reader r = new Reader(components[tag]);
+        int before = problems.size();
+        try {
+            switch (tag) {
+                case 1:
+                    header(r, problems);
+                    break;
+                case 2:
+                    directory(r, components, sizes, problems);
+                    break;
+                case 3:
+                    applet(r, sizes, problems);
+                    break;
+                case 4:
+                    imports(r, problems);
+                    break;
+                case 5:
+                    constantPool(r, sizes, problems);
+                    break;
+                case 6:
+                    classes(r, components[1], problems);
+                    break;
+                case 7:
+                    method(r, problems);
+                    break;
+                case 8:
+                    staticField(r, problems);
+                    break;
+                case 9:
+                    refLocation(r, sizes, problems);
+                    break;
+                case 10:
+                    export(r, sizes, problems);
+                    break;
+                case 11:
+                    descriptor(r, sizes, problems);
+                    break;
+                default:
+                    // Debug component is not loaded and not checked
+                    r.pos = r.data.length;
+            }
+            if (!r.done() && problems.size() == before)
+                problems.add(name + " component has " + (r.data.length - r.pos) + " extra bytes");
+        } catch (IndexOutOfBoundsException e) {
+            problems.add(name + " component is truncated");
+        }
+        // Prefix problems found inside the component
+        for (int i = before; i < problems.size(); i++) {
+            if (!problems.get(i).startsWith(name + " "))
+                problems.set(i, name + " component: " + problems.get(i));
+        }
+    }
+
+    private static boolean aid(Reader r, List<String> problems) {
+        int len = r.u1();
+        r.skip(len);
+        if (len < 5 || len > 16) {
+            problems.add("invalid AID length " + len);
+            return false;
+        }
+        return true;
+    }
+
+    // Offset into a component of known size
+    private static void offset(String what, int offset, int size, List<String> problems) {
+        if (size >= 0 && offset >= size)
+            problems.add(what + " " + offset + " is outside of " + size);
+    }
+
+    private static void header(Reader r, List<String> problems) {
+        if (r.u2() != 0xDECA || r.u2() != 0xFFED)
+            problems.add("invalid magic");
+        r.skip(3); // minor, major, flags
+        r.skip(2); // package minor, major
+        aid(r, problems);
+        // package_name_info is present from CAP format 2.2
+        if (!r.done())
+            r.skip(r.u1());
+    }
+
+    // Number of component sizes in the Directory component
+    private static int directoryComponents(byte[] header) {
+        return header != null && header.length > 7 && (header[7] & 0xFF) >= 2 ? 12 : 11;
+    }
+
+    private static void directory(Reader r, byte[][] components, int[] sizes, List<String> problems) {
+        int count = directoryComponents(components[1]);
+        for (int tag = 1; tag <= count; tag++) {
+            int declared = r.u2();
+            if (sizes[tag] == BROKEN)
+                continue;
+            int actual = sizes[tag] < 0 ? (components[tag] == null ? 0 : -1) : sizes[tag];
+            // Debug component does not have to be present for its size to be given
+            if (actual >= 0 && declared != actual && !(tag == 12 && actual == 0))
+                problems.add("size of " + NAMES[tag] + " is " + declared + ", actual " + actual);
+        }
+        r.skip(6); // static_field_size_info
+        int imports = r.u1();
+        int applets = r.u1();
+        if (components[4] != null && (components[4].length < 4 || imports != (components[4][3] & 0xFF)))
+            problems.add("import count " + imports + " does not match Import component");
+        if (sizes[3] != BROKEN && (components[3] == null ? 0 : components[3].length < 4 ? -1 : components[3][3] & 0xFF) != applets)
+            problems.add("applet count " + applets + " does not match Applet component");
+        for (int i = r.u1(); i > 0; i--) {
+            int tag = r.u1();
+            r.skip(2); // size
+            if (tag < 128)
+                problems.add("invalid custom component tag " + tag);
+            aid(r, problems);
+        }
+    }
+
+    private static void applet(Reader r, int[] sizes, List<String> problems) {
+        int count = r.u1();
+        if (count == 0)
+            problems.add("no applets");
+        for (int i = 0; i < count; i++) {
+            aid(r, problems);
+            offset("install method offset", r.u2(), sizes[7], problems);
+        }
+    }
+
+    private static void imports(Reader r, List<String> problems) {
+        for (int i = r.u1(); i > 0; i--) {
+            r.skip(2); // minor, major
+            aid(r, problems);
+        }
+    }
+
+    private static void constantPool(Reader r, int[] sizes, List<String> problems) {
+        int count = r.u2();
+        for (int i = 0; i < count; i++) {
+            int tag = r.u1();
+            int b1 = r.u1();
+            int b2 = r.u1();
+            int b3 = r.u1();
+            int ref = b1 << 8 | b2;
+            switch (tag) {
+                case CAPComponents.ConstantPool.CLASSREF:
+                case CAPComponents.ConstantPool.INSTANCE_FIELDREF:
+                case CAPComponents.ConstantPool.VIRTUAL_METHODREF:
+                case CAPComponents.ConstantPool.SUPER_METHODREF:
+                    if (!CAPComponents.isExternal(ref))
+                        offset("entry " + i + " class offset", ref, sizes[6], problems);
+                    break;
+                case CAPComponents.ConstantPool.STATIC_FIELDREF:
+                    break;
+                case CAPComponents.ConstantPool.STATIC_METHODREF:
+                    if ((b1 & 0x80) == 0)
+                        offset("entry " + i + " method offset", b2 << 8 | b3, sizes[7], problems);
+                    break;
+                default:
+                    problems.add("entry " + i + " has invalid tag " + tag);
+            }
+        }
+    }
+
+    private static void classes(Reader r, byte[] header, List<String> problems) {
+        if (directoryComponents(header) == 12)
+            r.skip(r.u2()); // signature_pool
+        while (!r.done()) {
+            int bitfield = r.u1();
+            int flags = bitfield >> 4;
+            int interfaces = bitfield & 0x0F;
+            if ((flags & CAPComponents.Classes.ACC_INTERFACE) != 0) {
+                r.skip(interfaces * 2);
+                if ((flags & CAPComponents.Classes.ACC_REMOTE) != 0)
+                    r.skip(r.u1()); // interface_name_info
+                continue;
+            }
+            r.skip(2 + 3); // super_class_ref, declared_instance_size, first_reference_token, reference_count
+            r.skip(1); // public_method_table_base
+            int publics = r.u1();
+            r.skip(1); // package_method_table_base
+            int packages = r.u1();
+            r.skip((publics + packages) * 2);
+            for (int i = 0; i < interfaces; i++) {
+                r.skip(2); // interface
+                r.skip(r.u1()); // indexes
+            }
+            if ((flags & CAPComponents.Classes.ACC_REMOTE) != 0) {
+                r.skip(r.u1() * 5); // remote_methods
+                r.skip(r.u1()); // hash_modifier
+                r.skip(r.u1()); // class_name
+                r.skip(r.u1() * 2); // remote_interfaces
+            }
+        }
+    }
+
+    private static void method(Reader r, List<String> problems) {
+        int size = r.data.length - 3;
+        for (int i = r.u1(); i > 0; i--) {
+            int start = r.u2();
+            int length = r.u2() & 0x7FFF; // stop bit
+            int handler = r.u2();
+            r.skip(2); // catch_type_index
+            offset("exception handler start", start + length - 1, size, problems);
+            offset("exception handler", handler, size, problems);
+        }
+        // Methods can only be told apart with the Descriptor component
+        r.pos = r.data.length;
+    }
+
+    private static void staticField(Reader r, List<String> problems) {
+        int image = r.u2();
+        int references = r.u2();
+        for (int i = r.u2(); i > 0; i--) {
+            r.skip(1); // type
+            r.skip(r.u2());
+        }
+        int defaults = r.u2();
+        int values = r.u2();
+        r.skip(values);
+        if (image != references * 2 + defaults + values)
+            problems.add("image size " + image + " does not match fields " + (references * 2 + defaults + values));
+    }
+
+    private static void refLocation(Reader r, int[] sizes, List<String> problems) {
+        // Offsets to 1-byte and 2-byte indices, as deltas from the previous one
+        for (int table = 0; table < 2; table++) {
+            int count = r.u2();
+            int offset = 0;
+            for (int i = 0; i < count; i++)
+                offset += r.u1();
+            if (count > 0)
+                offset("reference location", offset, sizes[7], problems);
+        }
+    }
+
+    private static void export(Reader r, int[] sizes, List<String> problems) {
+        for (int i = r.u1(); i > 0; i--) {
+            offset("class offset", r.u2(), sizes[6], problems);
+            int fields = r.u1();
+            int methods = r.u1();
+            r.skip(fields * 2);
+            for (int j = 0; j < methods; j++)
+                offset("static method offset", r.u2(), sizes[7], problems);
+        }
+    }
+
+    private static void descriptor(Reader r, int[] sizes, List<String> problems) {
+        for (int i = r.u1(); i > 0; i--) {
+            r.skip(2); // token, access_flags
+            int ref = r.u2();
+            offset("class offset", ref, sizes[6], problems);
+            int interfaces = r.u1();
+            int fields = r.u2();
+            int methods = r.u2();
+            r.skip(interfaces * 2);
+            r.skip(fields * 7);
+            for (int j = 0; j < methods; j++) {
+                r.skip(2); // token, access_flags
+                int offset = r.u2();
+                r.skip(8); // type_offset, bytecode_count, exception_handler_count, exception_handler_index
+                if (offset != 0)
+                    offset("method offset", offset, sizes[7], problems);
+            }
+        }
+        // type_descriptor_info
+        r.skip(r.u2() * 2);
+        while (!r.done())
+            r.skip((r.u1() + 1) / 2);
+    }
+}
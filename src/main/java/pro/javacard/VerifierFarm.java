@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+
+/**
+ * Verifies many CAP files in parallel, with a {@link VerifierSession} per worker.
+ * <p>
+ * Every session has its own class loader over the SDK tool JARs, so the SDK verifier classes and
+ * their static state are not shared between threads. EXP files are looked up from a shared
+ * {@link ExportCatalog}, so a compatibility matrix of CAP files against several target SDK-s
+ * reads every export file once.
+ */
+public final class VerifierFarm implements Closeable {
+    private final BlockingQueue<VerifierSession> sessions;
+    private final ExecutorService pool;
+
+    // Either verified, rejected by the verifier (error) or not verified at all (failure)
+    public static final class Result {
+        private final Path file;
+        private final VerifierError error;
+        private final RuntimeException failure;
+
+        Result(Path file, VerifierError error) {
+            this(file, error, null);
+        }
+
+        Result(Path file, VerifierError error, RuntimeException failure) {
+            this.file = file;
+            this.error = error;
+            this.failure = failure;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public boolean isVerified() {
+            return error == null && failure == null;
+        }
+
+        public Optional<VerifierError> getError() {
+            return Optional.ofNullable(error);
+        }
+
+        // Unreadable CAP file, broken SDK and the like, says nothing about the CAP file passing verification
+        public Optional<RuntimeException> getFailure() {
+            return Optional.ofNullable(failure);
+        }
+    }
+
+    private VerifierFarm(List<VerifierSession> sessions) {
+        this.sessions = new ArrayBlockingQueue<>(sessions.size(), false, sessions);
+        this.pool = Executors.newFixedThreadPool(sessions.size());
+    }
+
+    public static VerifierFarm open(JavaCardSDK sdk, int workers) {
+        return open(sdk, workers, new ExportCatalog());
+    }
+
+    public static VerifierFarm open(JavaCardSDK sdk, int workers, ExportCatalog catalog) {
+        if (workers < 1)
+            throw new IllegalArgumentException("Invalid number of workers: " + workers);
+        OffCardVerifier verifier = OffCardVerifier.withSDK(sdk);
+        List<VerifierSession> sessions = new ArrayList<>();
+        try {
+            for (int i = 0; i < workers; i++)
+                sessions.add(verifier.session(catalog));
+        } catch (RuntimeException e) {
+            sessions.forEach(VerifierSession::close);
+            throw e;
+        }
+        return new VerifierFarm(sessions);
+    }
+
+    // Verify CAP files against a specific JavaCard target SDK and a set of EXP files, results in the same order
+    public List<Result> verifyAgainst(List<Path> files, JavaCardSDK target, List<File> exps) throws InterruptedException {
+        List<File> exports = new ArrayList<>(exps);
+        exports.add(target.getExportDir());
+        return verify(files, exports);
+    }
+
+    public List<Result> verify(List<Path> files, List<File> exps) throws InterruptedException {
+        List<Future<Result>> futures = new ArrayList<>();
+        for (Path file : files)
+            futures.add(pool.submit(() -> verify(file, exps)));
+        List<Result> results = new ArrayList<>();
+        for (Future<Result> f : futures) {
+            try {
+                results.add(f.get());
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Could not run verifier: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return results;
+    }
+
+    // Verify CAP files against every target SDK at once, results per target in the same order as files
+    public Map<JavaCardSDK, List<Result>> verifyMatrix(List<Path> files, List<JavaCardSDK> targets, List<File> exps) throws InterruptedException {
+        // CAP files are parsed once for all targets
+        List<Future<CAPFile>> parsed = new ArrayList<>();
+        for (Path file : files)
+            parsed.add(pool.submit(() -> CAPFile.peek(file)));
+        List<CAPFile> caps = new ArrayList<>();
+        List<RuntimeException> broken = new ArrayList<>();
+        for (Future<CAPFile> f : parsed) {
+            try {
+                caps.add(f.get());
+                broken.add(null);
+            } catch (ExecutionException e) {
+                caps.add(null);
+                broken.add(new RuntimeException("Could not read CAP file: " + e.getCause().getMessage(), e.getCause()));
+            }
+        }
+        Map<JavaCardSDK, List<Future<Result>>> futures = new LinkedHashMap<>();
+        for (JavaCardSDK target : targets) {
+            List<File> exports = new ArrayList<>(exps);
+            exports.add(target.getExportDir());
+            List<Future<Result>> row = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                Path file = files.get(i);
+                CAPFile cap = caps.get(i);
+                RuntimeException failure = broken.get(i);
+                row.add(failure != null ? CompletableFuture.completedFuture(new Result(file, null, failure)) : pool.submit(() -> verify(file, cap, exports)));
+            }
+            futures.put(target, row);
+        }
+        Map<JavaCardSDK, List<Result>> results = new LinkedHashMap<>();
+        for (Map.Entry<JavaCardSDK, List<Future<Result>>> e : futures.entrySet()) {
+            List<Result> row = new ArrayList<>();
+            for (Future<Result> f : e.getValue()) {
+                try {
+                    row.add(f.get());
+                } catch (ExecutionException ex) {
+                    throw new RuntimeException("Could not run verifier: " + ex.getCause().getMessage(), ex.getCause());
+                }
+            }
+            results.put(e.getKey(), row);
+        }
+        return results;
+    }
+
+    private Result verify(Path file, List<File> exps) throws InterruptedException {
+        return verify(file, null, exps);
+    }
+
+    private Result verify(Path file, CAPFile cap, List<File> exps) throws InterruptedException {
+        VerifierSession session = sessions.take();
+        try {
+            if (cap == null)
+                session.verify(file.toFile(), exps);
+            else
+                session.verify(file.toFile(), cap, exps);
+            return new Result(file, null);
+        } catch (VerifierError e) {
+            return new Result(file, e);
+        } catch (RuntimeException e) {
+            // Unreadable CAP file and the like, not a verdict on the CAP file
+            return new Result(file, null, e);
+        } finally {
+            sessions.add(session);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+        sessions.forEach(VerifierSession::close);
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Verifies CAP files with the SDK verifier running in child JVM-s, for SDK-s that leak static state or exit.
+ * <p>
+ * Workers are started when the pool is opened and keep a {@link VerifierSession} loaded. Jobs are sent
+ * over the standard input and output of the child. A worker is replaced after the given number of jobs,
+ * when it dies or when a job takes longer than the timeout. The replacement is started in the background
+ * right away, so that the next job does not wait for a cold JVM.
+ */
+public final class VerifierProcessPool implements Closeable {
+    private final JavaCardSDK sdk;
+    private final int maxJobs;
+    private final long timeout; // milliseconds
+    private final BlockingQueue<Worker> idle;
+    private final ExecutorService pool;
+    private final ScheduledExecutorService watchdog;
+    private final ExecutorService restarts;
+    private boolean closed;
+
+    private static final long STOP_TIMEOUT = 5_000; // milliseconds
+
+    private final class Worker {
+        private Process process;
+        private DataOutputStream out;
+        private DataInputStream in;
+        private int jobs;
+
+        void start() throws IOException {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            ProcessBuilder pb = new ProcessBuilder(java, "-cp", classpath(), VerifierWorker.class.getName(), sdk.getRoot().getAbsolutePath());
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = pb.start();
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+            jobs = 0;
+            try {
+                byte status = in.readByte();
+                String message = VerifierWorker.readString(in);
+                if (status != VerifierWorker.VERIFIED)
+                    throw new IOException(message);
+            } catch (IOException e) {
+                stop();
+                throw e;
+            }
+        }
+
+        // Closing stdin lets the worker exit on its own, killed if it does not
+        void stop() {
+            if (process != null) {
+                Process p = process;
+                process = null;
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Already gone
+                }
+                try {
+                    if (!p.waitFor(STOP_TIMEOUT, TimeUnit.MILLISECONDS))
+                        p.destroyForcibly();
+                } catch (InterruptedException e) {
+                    p.destroyForcibly();
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // Where this library was loaded from, as the class path of the application can be anything
+    private static String classpath() throws IOException {
+        try {
+            CodeSource source = VerifierWorker.class.getProtectionDomain().getCodeSource();
+            if (source == null)
+                throw new IOException("Could not locate " + VerifierWorker.class.getName());
+            return Paths.get(source.getLocation().toURI()).toString();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Could not locate " + VerifierWorker.class.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private VerifierProcessPool(JavaCardSDK sdk, int workers, int maxJobs, long timeout) {
+        this.sdk = sdk;
+        this.maxJobs = maxJobs;
+        this.timeout = timeout;
+        this.idle = new ArrayBlockingQueue<>(workers);
+        this.pool = Executors.newFixedThreadPool(workers);
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "capfile-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        this.restarts = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "capfile-restart");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static VerifierProcessPool open(JavaCardSDK sdk, int workers) throws IOException {
+        return open(sdk, workers, 100, 60_000);
+    }
+
+    // Workers are recycled after maxJobs jobs, jobs killed after timeout milliseconds
+    public static VerifierProcessPool open(JavaCardSDK sdk, int workers, int maxJobs, long timeout) throws IOException {
+        if (workers < 1 || maxJobs < 1 || timeout < 1)
+            throw new IllegalArgumentException("Invalid pool parameters");
+        VerifierProcessPool result = new VerifierProcessPool(sdk, workers, maxJobs, timeout);
+        // Start all workers at once, so that they warm up in parallel
+        List<Future<Worker>> starting = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            starting.add(result.pool.submit(() -> {
+                Worker w = result.new Worker();
+                w.start();
+                return w;
+            }));
+        }
+        try {
+            for (Future<Worker> f : starting)
+                result.idle.add(f.get());
+        } catch (InterruptedException | ExecutionException e) {
+            for (Future<Worker> f : starting) {
+                try {
+                    f.get().stop();
+                } catch (InterruptedException | ExecutionException ignored) {
+                    // Did not start
+                }
+            }
+            result.close();
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            throw new IOException("Could not start verifier: " + cause.getMessage(), cause);
+        }
+        return result;
+    }
+
+    // Verify CAP files against a specific JavaCard target SDK and a set of EXP files, results in the same order
+    public List<VerifierFarm.Result> verifyAgainst(List<Path> files, JavaCardSDK target, List<File> exps) throws InterruptedException {
+        List<File> exports = new ArrayList<>(exps);
+        exports.add(target.getExportDir());
+        return verify(files, exports);
+    }
+
+    public List<VerifierFarm.Result> verify(List<Path> files, List<File> exps) throws InterruptedException {
+        List<Future<VerifierFarm.Result>> futures = new ArrayList<>();
+        for (Path file : files)
+            futures.add(pool.submit(() -> verify(file, exps)));
+        List<VerifierFarm.Result> results = new ArrayList<>();
+        for (Future<VerifierFarm.Result> f : futures) {
+            try {
+                results.add(f.get());
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Could not run verifier: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private VerifierFarm.Result verify(Path file, List<File> exps) throws InterruptedException {
+        Worker w = idle.take();
+        boolean replace = false;
+        try {
+            // Replacement did not start in the background
+            if (w.process == null)
+                w.start();
+            final Process process = w.process;
+            final AtomicBoolean expired = new AtomicBoolean();
+            ScheduledFuture<?> kill = watchdog.schedule(() -> {
+                expired.set(true);
+                process.destroyForcibly();
+            }, timeout, TimeUnit.MILLISECONDS);
+            try {
+                VerifierWorker.writeString(w.out, file.toAbsolutePath().toString());
+                w.out.writeInt(exps.size());
+                for (File e : exps)
+                    VerifierWorker.writeString(w.out, e.getAbsolutePath());
+                w.out.flush();
+                byte status = w.in.readByte();
+                String message = VerifierWorker.readString(w.in);
+                if (++w.jobs >= maxJobs)
+                    replace = true;
+                switch (status) {
+                    case VerifierWorker.VERIFIED:
+                        return new VerifierFarm.Result(file, null);
+                    case VerifierWorker.FAILED:
+                        return new VerifierFarm.Result(file, new VerifierError(message));
+                    default:
+                        return new VerifierFarm.Result(file, null, new RuntimeException(message));
+                }
+            } catch (IOException e) {
+                // No verdict from the SDK, whatever the reason
+                replace = true;
+                if (expired.get())
+                    return new VerifierFarm.Result(file, null, new RuntimeException("Verification timed out after " + timeout + "ms"));
+                return new VerifierFarm.Result(file, null, new RuntimeException("Verifier exited" + exitCode(process), e));
+            } finally {
+                // Killed just as the job finished
+                if (!kill.cancel(false))
+                    replace = true;
+            }
+        } catch (IOException e) {
+            return new VerifierFarm.Result(file, null, new UncheckedIOException("Could not start verifier: " + e.getMessage(), e));
+        } finally {
+            if (replace)
+                replace(w);
+            else
+                idle.add(w);
+        }
+    }
+
+    // Retires the worker and starts a new one in its place in the background
+    private void replace(Worker w) {
+        try {
+            restarts.execute(() -> {
+                w.stop();
+                try {
+                    w.start();
+                } catch (IOException e) {
+                    // Tried again by the next job, which reports the failure
+                }
+                synchronized (this) {
+                    if (closed)
+                        w.stop();
+                    else
+                        idle.add(w);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Pool is closed
+            w.stop();
+        }
+    }
+
+    private static String exitCode(Process process) throws InterruptedException {
+        if (process.waitFor(1, TimeUnit.SECONDS))
+            return " with " + process.exitValue();
+        return "";
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        pool.shutdownNow();
+        watchdog.shutdownNow();
+        restarts.shutdown();
+        Worker w;
+        while ((w = idle.poll()) != null)
+            w.stop();
+    }
+}
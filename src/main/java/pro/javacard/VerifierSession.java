@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Off-card verifier of an SDK, loaded once and kept around for verifying many CAP files.
+ * <p>
+ * The SDK class loader and the verifyCap handle are resolved when the session is opened.
+ * All EXP files in the given directories and JAR files are given to the verifier, JAR files are
+ * extracted once per session. {@link #check} finds CAP files that are broken ({@link StructureChecker})
+ * or do not link ({@link LinkChecker}) without calling the SDK, on request only. EXP files for it
+ * are looked up from an {@link ExportCatalog}. The SDK verifier is not known to be thread safe, so verifications are
+ * serialized. Close the session to release the class loader and extracted EXP files.
+ */
+public final class VerifierSession implements Closeable {
+    private final URLClassLoader loader;
+    private final MethodHandle verifyCap;
+    private final boolean stream; // 3.0.5u1 and earlier read the CAP from a FileInputStream
+    private final Path tmp;
+    private final ExportCatalog catalog;
+    private final Map<String, List<File>> extracted = new HashMap<>();
+
+    VerifierSession(JavaCardSDK sdk, ExportCatalog catalog) {
+        this.catalog = catalog;
+        String release = sdk.getRelease();
+        // 3.0.5u1 still uses old signature
+        stream = !(release.equals("3.0.5u3") || release.equals("3.0.5u2") || release.equals("3.1.0"));
+        loader = sdk.newClassLoader();
+        try {
+            Class<?> verifier = Class.forName("com.sun.javacard.offcardverifier.Verifier", true, loader);
+            verifyCap = MethodHandles.publicLookup().unreflect(verifier.getMethod("verifyCap", stream ? FileInputStream.class : File.class, String.class, Vector.class));
+            tmp = Files.createTempDirectory("capfile");
+        } catch (ReflectiveOperationException | IOException e) {
+            closeQuietly();
+            throw new RuntimeException("Could not load verifier: " + e.getMessage(), e);
+        }
+    }
+
+    public static VerifierSession open(JavaCardSDK sdk) {
+        return OffCardVerifier.withSDK(sdk).session();
+    }
+
+    // Verify a CAP file against a specific JavaCard target SDK and a set of EXP files
+    public void verifyAgainst(File f, JavaCardSDK target, List<File> exps) throws VerifierError {
+        List<File> exports = new ArrayList<>(exps);
+        exports.add(target.getExportDir());
+        verify(f, exports);
+    }
+
+    // Verify a given CAP file against a set of EXP files (or directories and JAR files containing them)
+    public void verify(File f, List<File> exps) throws VerifierError {
+        final CAPFile cap;
+        try {
+            cap = CAPFile.peek(f.toPath());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not run verifier: " + e.getMessage(), e);
+        }
+        verify(f, cap, exps);
+    }
+
+    // With the CAP file already parsed from f
+    synchronized void verify(File f, CAPFile cap, List<File> exps) throws VerifierError {
+        final String packagename = cap.getPackageName();
+        final Vector<File> expfiles = new Vector<>();
+        try {
+            // Every EXP file given, the SDK can need more than the imported packages
+            for (File location : exps)
+                expfiles.addAll(files(location));
+        } catch (IOException e) {
+            throw new RuntimeException("Could not run verifier: " + e.getMessage(), e);
+        }
+        try {
+            if (stream) {
+                try (FileInputStream input = new FileInputStream(f)) {
+                    verifyCap.invoke(input, packagename, expfiles);
+                }
+            } else {
+                verifyCap.invoke(f, packagename, expfiles);
+            }
+        } catch (Error e) {
+            // Out of memory, wrong SDK JAR and the like are not verification failures
+            throw e;
+        } catch (IOException e) {
+            throw new RuntimeException("Could not run verifier: " + e.getMessage(), e);
+        } catch (Throwable e) {
+            // verifyCap throws whatever the SDK throws, MethodHandle does not wrap it
+            throw new VerifierError(e.getMessage() == null ? e.getClass().getName() : e.getMessage(), e);
+        }
+    }
+
+    // Problems found without the SDK, empty if the CAP file is sound and links against the EXP files.
+    // Not done by verify(), so that the SDK has the last word; run it first to skip the SDK for broken files
+    public List<String> check(CAPFile cap, List<File> exps) throws IOException {
+        List<String> problems = StructureChecker.check(cap);
+        if (problems.isEmpty()) {
+            List<ExportFile> parsed = new ArrayList<>();
+            for (ExportCatalog.Export e : catalog.select(exps, cap.getImports()))
+                parsed.add(catalog.read(e));
+            problems = LinkChecker.check(cap, parsed);
+        }
+        return problems;
+    }
+
+    // EXP files of a directory, JAR file or EXP file. JAR files are extracted once
+    private List<File> files(File location) throws IOException {
+        String name = location.getName().toLowerCase();
+        if (location.isDirectory()) {
+            try (Stream<Path> walk = Files.walk(location.toPath().toRealPath())) {
+                return walk.filter(p -> p.toString().endsWith(".exp")).map(Path::toFile).collect(Collectors.toList());
+            }
+        } else if (location.isFile() && name.endsWith(".exp")) {
+            return Collections.singletonList(location);
+        } else if (location.isFile() && name.endsWith(".jar")) {
+            String key = location.getAbsolutePath() + "@" + location.lastModified();
+            List<File> result = extracted.get(key);
+            if (result == null) {
+                // Every JAR gets its own folder
+                File dir = tmp.resolve(Integer.toString(extracted.size())).toFile();
+                result = OffCardVerifier.extractExps(location, dir);
+                extracted.put(key, result);
+            }
+            return result;
+        }
+        return Collections.emptyList();
+    }
+
+    private void closeQuietly() {
+        try {
+            loader.close();
+        } catch (IOException e) {
+            // Do nothing
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closeQuietly();
+        extracted.clear();
+        if (tmp != null)
+            OffCardVerifier.rmminusrf(tmp);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Child JVM of VerifierProcessPool: keeps a VerifierSession open and verifies CAP files sent over stdin
+final class VerifierWorker {
+    static final String READY = "ready";
+    // Reply status: verified (or started), rejected by the verifier, could not verify
+    static final byte VERIFIED = 0;
+    static final byte FAILED = 1;
+    static final byte ERROR = 2;
+    private static final int MAX_STRING = 16 * 1024 * 1024;
+
+    private VerifierWorker() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        // Whatever the SDK prints must not end up among results
+        System.setOut(System.err);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+
+        final VerifierSession session;
+        try {
+            JavaCardSDK sdk = JavaCardSDK.detectSDK(args[0]);
+            if (sdk == null)
+                throw new IllegalArgumentException("No JavaCard SDK in " + args[0]);
+            session = VerifierSession.open(sdk);
+        } catch (RuntimeException e) {
+            reply(out, ERROR, e.getMessage());
+            System.exit(1);
+            return;
+        }
+        reply(out, VERIFIED, READY);
+
+        while (true) {
+            final String capfile;
+            try {
+                capfile = readString(in);
+            } catch (EOFException e) {
+                break;
+            }
+            List<File> exps = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--)
+                exps.add(new File(readString(in)));
+            try {
+                session.verify(new File(capfile), exps);
+                reply(out, VERIFIED, "");
+            } catch (VerifierError e) {
+                reply(out, FAILED, e.getMessage());
+            } catch (RuntimeException e) {
+                reply(out, ERROR, e.getMessage());
+            }
+        }
+        session.close();
+    }
+
+    private static void reply(DataOutputStream out, byte status, String message) throws IOException {
+        out.writeByte(status);
+        writeString(out, message == null ? "" : message);
+        out.flush();
+    }
+
+    // Length and UTF-8, as verifier messages can be longer than writeUTF() allows
+    static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING)
+            throw new IOException("Invalid string length: " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -22,8 +22,6 @@
 
 package pro.javacard;
 
-import org.yaml.snakeyaml.Yaml;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
@@ -31,13 +29,19 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
+// Built-in list is compiled at build time (see AIDList), the user list is loaded only for AID-s missing from it
 public class WellKnownAID {
 
     private static Map<AID, String> javaCardRegistry = new HashMap<>();
     private static Map<AID, String> wellKnownRegistry = new HashMap<>();
+    private static final Map<AID, String> userRegistry = new ConcurrentHashMap<>();
+    private static volatile boolean userLoaded = false;
+    private static volatile AIDTrie index; // all of the above, dropped when more is loaded
 
     static {
         // Copied from https://stackoverflow.com/questions/25031338/how-to-get-javacard-version-on-card/25063015#25063015
@@ -76,34 +80,39 @@ public class WellKnownAID {
         wellKnownRegistry.put(AID.fromString("A0000001515350"), "SSD creation package");
         wellKnownRegistry.put(AID.fromString("A000000151535041"), "SSD creation applet");
 
-        // Load internal
-        try (InputStream in = WellKnownAID.class.getResourceAsStream("aid_list.yml")) {
-            load(in);
+        // Load internal, compiled if available
+        try (InputStream bin = WellKnownAID.class.getResourceAsStream("aid_list.bin")) {
+            if (bin != null) {
+                wellKnownRegistry.putAll(AIDList.read(bin));
+            } else {
+                try (InputStream in = WellKnownAID.class.getResourceAsStream("aid_list.yml")) {
+                    wellKnownRegistry.putAll(AIDList.parse(in));
+                }
+            }
         } catch (IOException e) {
             throw new RuntimeException("Can not load builtin list of AID-s: " + e.getMessage(), e);
         }
-
-        // Try to load more
-        Path p = Paths.get(System.getenv().getOrDefault("AID_LIST", Paths.get(System.getProperty("user.home"), ".apdu4j", "aid_list.yml").toString()));
-        load(p);
     }
 
-    static void load(InputStream in) {
-        // TODO: add logging instead of system.err
-        try {
-            ArrayList<Map<String, String>> content = new Yaml().load(in);
-            for (Map<String, String> e : content) {
-                if (e.containsKey("aid") && e.containsKey("name")) {
-                    wellKnownRegistry.put(new AID(e.get("aid")), e.get("name"));
-                } else {
-                    System.err.println("Invalid entry: " + e);
-                }
-            }
-        } catch (ClassCastException e) {
-            System.err.println("Invalid format: " + e.getMessage());
+    // Try to load more, once
+    private static void loadUser() {
+        synchronized (userRegistry) {
+            if (userLoaded)
+                return;
+            Path p = Paths.get(System.getenv().getOrDefault("AID_LIST", Paths.get(System.getProperty("user.home"), ".apdu4j", "aid_list.yml").toString()));
+            load(p);
+            userLoaded = true;
         }
     }
 
+    // Invalid entries are skipped
+    static void load(InputStream in) throws IOException {
+        List<String> problems = new ArrayList<>();
+        userRegistry.putAll(AIDList.parse(in, problems));
+        index = null;
+        problems.forEach(System.err::println);
+    }
+
     public static void load(Path p) {
         if (!Files.exists(p))
             return;
@@ -120,6 +129,37 @@ public class WellKnownAID {
     }
 
     public static Optional<String> getName(AID aid) {
-        return Optional.ofNullable(wellKnownRegistry.getOrDefault(aid, javaCardRegistry.get(aid)));
+        String name = wellKnownRegistry.getOrDefault(aid, javaCardRegistry.get(aid));
+        if (name == null) {
+            if (!userLoaded)
+                loadUser();
+            name = userRegistry.get(aid);
+        }
+        return Optional.ofNullable(name);
+    }
+
+    // Name of the AID or the longest known AID it starts with, like the package of an applet
+    public static Optional<String> getPrefixName(AID aid) {
+        return index().getLongestPrefix(aid);
+    }
+
+    // Name registered for the RID of the AID
+    public static Optional<String> getRIDName(AID aid) {
+        return index().getRID(aid);
+    }
+
+    private static AIDTrie index() {
+        AIDTrie result = index;
+        if (result == null) {
+            if (!userLoaded)
+                loadUser();
+            // Same precedence as getName()
+            Map<AID, String> all = new HashMap<>(userRegistry);
+            all.putAll(javaCardRegistry);
+            all.putAll(wellKnownRegistry);
+            result = AIDTrie.of(all);
+            index = result;
+        }
+        return result;
     }
 }
@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2021 Martin Paljak
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package pro.javacard;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * ZIP entries of a CAP file, read from the central directory of an in-memory archive.
+ * Entries are inflated into exactly sized arrays on first access, so components that are
+ * never looked at (like Debug.cap for a plain dump) are never decompressed.
+ */
+final class ZipEntries extends AbstractMap<String, byte[]> {
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int END_LEN = 22;
+    private static final int LOC_LEN = 30;
+    private static final int CEN_LEN = 46;
+    private static final int MAX_RATIO = 1032; // best compression ratio of deflate
+
+    // Location of an entry in the archive
+    private static final class Raw {
+        final int method;
+        final int time; // MS-DOS date and time
+        final int crc;
+        final int offset; // of local file header
+        final int csize;
+        final int size;
+
+        Raw(int method, int time, int crc, int offset, int csize, int size) {
+            this.method = method;
+            this.time = time;
+            this.crc = crc;
+            this.offset = offset;
+            this.csize = csize;
+            this.size = size;
+        }
+    }
+
+    private final byte[] zip;
+    // Values are either byte[] (inflated or put) or Raw
+    private final LinkedHashMap<String, Object> backing = new LinkedHashMap<>();
+    // Entries as found in the archive and not put or removed since
+    private final Map<String, Raw> originals = new HashMap<>();
+
+    private ZipEntries(byte[] zip) {
+        this.zip = zip;
+    }
+
+    static ZipEntries parse(byte[] zip) throws IOException {
+        ZipEntries result = new ZipEntries(zip);
+        // Find end of central directory record, possibly followed by a comment
+        int end = -1;
+        for (int i = zip.length - END_LEN; i >= 0 && i >= zip.length - END_LEN - 0xFFFF; i--) {
+            if (u4(zip, i) == END_SIG) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0)
+            throw new IOException("Not a ZIP file: no central directory");
+        int count = u2(zip, end + 10);
+        long cdsize = u4(zip, end + 12) & 0xFFFFFFFFL;
+        long cdoffset = u4(zip, end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || cdoffset == 0xFFFFFFFFL || cdoffset + cdsize > end)
+            throw new IOException("Invalid or ZIP64 central directory");
+
+        int p = (int) cdoffset;
+        for (int i = 0; i < count; i++) {
+            check(zip, p, CEN_LEN);
+            if (u4(zip, p) != CEN_SIG)
+                throw new IOException("Invalid central directory entry at " + p);
+            int flags = u2(zip, p + 8);
+            int method = u2(zip, p + 10);
+            int time = u4(zip, p + 12);
+            int crc = u4(zip, p + 16);
+            long csize = u4(zip, p + 20) & 0xFFFFFFFFL;
+            long size = u4(zip, p + 24) & 0xFFFFFFFFL;
+            int nlen = u2(zip, p + 28);
+            int elen = u2(zip, p + 30);
+            int clen = u2(zip, p + 32);
+            long loc = u4(zip, p + 42) & 0xFFFFFFFFL;
+            check(zip, p + CEN_LEN, nlen);
+            String name = new String(zip, p + CEN_LEN, nlen, StandardCharsets.UTF_8);
+            if ((flags & 0x01) != 0)
+                throw new IOException("Encrypted entry: " + name);
+            if (method != 0 && method != 8)
+                throw new IOException("Unsupported compression method " + method + " for " + name);
+            if (loc + LOC_LEN + csize > cdoffset)
+                throw new IOException("Invalid entry: " + name);
+            // Inflated into an array of the declared size, which must be possible to get from the data
+            if (size > Math.min(csize * MAX_RATIO + 64, Integer.MAX_VALUE - 8))
+                throw new IOException("Invalid entry size: " + name);
+            Raw raw = new Raw(method, time, crc, (int) loc, (int) csize, (int) size);
+            result.backing.put(name, raw);
+            result.originals.put(name, raw);
+            p += CEN_LEN + nlen + elen + clen;
+        }
+        return result;
+    }
+
+    // Offset of compressed data of an entry
+    private int dataOffset(Raw r) throws IOException {
+        check(zip, r.offset, LOC_LEN);
+        if (u4(zip, r.offset) != LOC_SIG)
+            throw new IOException("Invalid local header at " + r.offset);
+        int start = r.offset + LOC_LEN + u2(zip, r.offset + 26) + u2(zip, r.offset + 28);
+        check(zip, start, r.csize);
+        return start;
+    }
+
+    private byte[] inflate(String name, Raw r) throws IOException {
+        int start = dataOffset(r);
+        byte[] result;
+        if (r.method == 0) {
+            if (r.csize != r.size)
+                throw new IOException("Invalid stored entry: " + name);
+            result = Arrays.copyOfRange(zip, start, start + r.size);
+        } else {
+            result = new byte[r.size];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(zip, start, r.csize);
+                int n = 0;
+                while (n < r.size) {
+                    int c = inflater.inflate(result, n, r.size - n);
+                    if (c == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    n += c;
+                }
+                if (n != r.size || !inflater.finished() && inflater.inflate(new byte[1]) > 0)
+                    throw new IOException("Invalid entry size: " + name);
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid compressed data in " + name + ": " + e.getMessage(), e);
+            } finally {
+                inflater.end();
+            }
+        }
+        if (crc(result) != r.crc)
+            throw new IOException("Invalid CRC for " + name);
+        return result;
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    // Original entry, if the entry has not been put or removed
+    private synchronized Raw unchanged(String name) {
+        return originals.get(name);
+    }
+
+    // Writes entries as a ZIP file and closes the stream. Unchanged entries of a parsed
+    // archive are copied as they are, others are deflated. Sizes and CRC are always
+    // known up front, so no data descriptors are written.
+    static void store(Map<String, byte[]> entries, OutputStream to) throws IOException {
+        ZipEntries source = entries instanceof ZipEntries ? (ZipEntries) entries : null;
+        int now = dosTime(System.currentTimeMillis());
+        ByteArrayOutputStream cen = new ByteArrayOutputStream();
+        int count = 0;
+        long offset = 0;
+        try (OutputStream out = new BufferedOutputStream(to)) {
+            for (String name : entries.keySet()) {
+                Raw r = source == null ? null : source.unchanged(name);
+                final byte[] data;
+                final int dataOffset;
+                final int method, time, crc, csize, size;
+                if (r != null) {
+                    data = source.zip;
+                    dataOffset = source.dataOffset(r);
+                    method = r.method;
+                    time = r.time;
+                    crc = r.crc;
+                    csize = r.csize;
+                    size = r.size;
+                } else {
+                    byte[] content = entries.get(name);
+                    time = now;
+                    crc = crc(content);
+                    size = content.length;
+                    dataOffset = 0;
+                    if (content.length == 0) {
+                        method = 0;
+                        data = content;
+                    } else {
+                        method = 8;
+                        data = deflate(content);
+                    }
+                    csize = data.length;
+                }
+                byte[] n = name.getBytes(StandardCharsets.UTF_8);
+                int flags = n.length == name.length() ? 0 : 0x800; // UTF-8 names
+                int version = method == 8 ? 20 : 10;
+
+                byte[] loc = new byte[LOC_LEN];
+                put4(loc, 0, LOC_SIG);
+                put2(loc, 4, version);
+                put2(loc, 6, flags);
+                put2(loc, 8, method);
+                put4(loc, 10, time);
+                put4(loc, 14, crc);
+                put4(loc, 18, csize);
+                put4(loc, 22, size);
+                put2(loc, 26, n.length);
+                out.write(loc);
+                out.write(n);
+                out.write(data, dataOffset, csize);
+
+                byte[] c = new byte[CEN_LEN];
+                put4(c, 0, CEN_SIG);
+                put2(c, 4, 20);
+                put2(c, 6, version);
+                put2(c, 8, flags);
+                put2(c, 10, method);
+                put4(c, 12, time);
+                put4(c, 16, crc);
+                put4(c, 20, csize);
+                put4(c, 24, size);
+                put2(c, 28, n.length);
+                put4(c, 42, (int) offset);
+                cen.write(c);
+                cen.write(n);
+
+                offset += LOC_LEN + n.length + csize;
+                count++;
+            }
+            if (count > 0xFFFF || offset > 0xFFFFFFFFL)
+                throw new IOException("ZIP64 not supported");
+            byte[] end = new byte[END_LEN];
+            put4(end, 0, END_SIG);
+            put2(end, 8, count);
+            put2(end, 10, count);
+            put4(end, 12, cen.size());
+            put4(end, 16, (int) offset);
+            cen.writeTo(out);
+            out.write(end);
+        }
+    }
+
+    private static byte[] deflate(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(content.length / 2 + 64);
+            byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                int c = deflater.deflate(buf);
+                bos.write(buf, 0, c);
+            }
+            return bos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static int dosTime(long millis) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(millis);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980)
+            return (1 << 21) | (1 << 16);
+        return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+                | c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+    }
+
+    @Override
+    public synchronized byte[] get(Object key) {
+        Object v = backing.get(key);
+        if (v instanceof Raw) {
+            try {
+                byte[] b = inflate((String) key, (Raw) v);
+                backing.put((String) key, b);
+                return b;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read " + key + ": " + e.getMessage(), e);
+            }
+        }
+        return (byte[]) v;
+    }
+
+    @Override
+    public synchronized byte[] put(String key, byte[] value) {
+        Object v = backing.put(key, Objects.requireNonNull(value));
+        originals.remove(key);
+        return v instanceof byte[] ? (byte[]) v : null;
+    }
+
+    @Override
+    public synchronized byte[] remove(Object key) {
+        Object v = backing.remove(key);
+        originals.remove(key);
+        return v instanceof byte[] ? (byte[]) v : null;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return backing.containsKey(key);
+    }
+
+    @Override
+    public synchronized int size() {
+        return backing.size();
+    }
+
+    @Override
+    public Set<Entry<String, byte[]>> entrySet() {
+        return new AbstractSet<Entry<String, byte[]>>() {
+            @Override
+            public Iterator<Entry<String, byte[]>> iterator() {
+                final Iterator<String> keys = backing.keySet().iterator();
+                return new Iterator<Entry<String, byte[]>>() {
+                    private String last;
+
+                    @Override
+                    public boolean hasNext() {
+                        return keys.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, byte[]> next() {
+                        final String key = keys.next();
+                        last = key;
+                        // Value is inflated only when asked for
+                        return new SimpleEntry<String, byte[]>(key, null) {
+                            private static final long serialVersionUID = 1L;
+
+                            @Override
+                            public byte[] getValue() {
+                                return get(key);
+                            }
+
+                            @Override
+                            public byte[] setValue(byte[] value) {
+                                return put(key, value);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        synchronized (ZipEntries.this) {
+                            keys.remove();
+                            originals.remove(last);
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return backing.size();
+            }
+        };
+    }
+
+    private static void check(byte[] zip, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || length > zip.length - offset)
+            throw new IOException("Truncated ZIP file");
+    }
+
+    private static void put2(byte[] b, int offset, int v) {
+        b[offset] = (byte) v;
+        b[offset + 1] = (byte) (v >> 8);
+    }
+
+    private static void put4(byte[] b, int offset, int v) {
+        put2(b, offset, v);
+        put2(b, offset + 2, v >> 16);
+    }
+
+    static int u2(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8;
+    }
+
+    static int u4(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8 | (b[offset + 2] & 0xFF) << 16 | (b[offset + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,27 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import static pro.javacard.TestCAPFile.zip;
+
+public class TestCAPComponents {
+    @Test
+    public void testComponents() throws Exception {
+        CAPComponents components = new CAPComponents(CAPFile.fromBytes(zip(true)));
+        Assert.assertEquals(components.header().aid(), new AID("0102030405060708"));
+        CAPComponents.Import imports = components.imports().get();
+        Assert.assertTrue(imports.next());
+        Assert.assertEquals(imports.minor(), 1);
+        Assert.assertEquals(new AID(imports.bytes(), imports.aidOffset(), imports.aidLength()), new AID("A0000000620101"));
+        Assert.assertFalse(imports.next());
+        CAPComponents.Applet applets = components.applet().get();
+        Assert.assertTrue(applets.next());
+        Assert.assertEquals(applets.installMethodOffset(), 0x1F);
+        CAPComponents.Method method = components.method().get().at(1);
+        Assert.assertEquals(method.maxStack(), 2);
+        Assert.assertEquals(method.nargs(), 1);
+        Assert.assertEquals(method.maxLocals(), 1);
+        Assert.assertFalse(components.descriptor().isPresent());
+    }
+}
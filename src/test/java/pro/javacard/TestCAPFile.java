@@ -0,0 +1,173 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+public class TestCAPFile {
+    static final String DIR = "com/example/javacard/";
+    static final byte[] HEADER = HexUtils.hex2bin("010013DECAFFED020204000108010203040506070800");
+    static final byte[] IMPORT = HexUtils.hex2bin("04000B01010107A0000000620101");
+    static final byte[] APPLET = HexUtils.hex2bin("03000D0109010203040506070801001F");
+    static final byte[] METHOD = HexUtils.hex2bin("0700080002111A8C00007A");
+    static final byte[] DEBUG = HexUtils.hex2bin("0C0004CAFEBABE");
+
+    static byte[] zip(boolean compress) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bos)) {
+            out.setLevel(compress ? 9 : 0);
+            String[] names = {"Header", "Import", "Applet", "Method", "Debug"};
+            byte[][] contents = {HEADER, IMPORT, APPLET, METHOD, DEBUG};
+            for (int i = 0; i < names.length; i++) {
+                out.putNextEntry(new ZipEntry(DIR + names[i] + ".cap"));
+                out.write(contents[i]);
+                out.closeEntry();
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    static byte[] code() {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(HEADER, 0, HEADER.length);
+        bos.write(IMPORT, 0, IMPORT.length);
+        bos.write(APPLET, 0, APPLET.length);
+        bos.write(METHOD, 0, METHOD.length);
+        return bos.toByteArray();
+    }
+
+    // Removes a temporary directory with everything in it
+    static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.delete(p);
+        }
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        for (boolean compress : new boolean[]{true, false}) {
+            CAPFile cap = CAPFile.fromBytes(zip(compress));
+            Assert.assertEquals(cap.getPackageName(), "com.example");
+            Assert.assertEquals(cap.getPackageAID(), new AID("0102030405060708"));
+            Assert.assertEquals(cap.getAppletAIDs().get(0), new AID("010203040506070801"));
+            Assert.assertEquals(cap.getImports().get(0).getAid(), new AID("A0000000620101"));
+            Assert.assertEquals(cap.guessJavaCardVersion().get(), "2.1.2");
+            Assert.assertEquals(cap.getCode(), code());
+        }
+    }
+
+    @Test
+    public void testStreamAndStore() throws Exception {
+        CAPFile cap = CAPFile.fromStream(new ByteArrayInputStream(zip(true)));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        cap.store(bos);
+        CAPFile copy = CAPFile.fromBytes(bos.toByteArray());
+        Assert.assertEquals(copy.getCode(), cap.getCode());
+        Assert.assertEquals(copy.getComponent("Debug"), DEBUG);
+
+        // Unchanged entries are copied, new and changed ones compressed
+        copy.entries.put("META-INF/" + CAPFile.DAP_P256_SHA256_FILE, METHOD);
+        copy.entries.put(DIR + "Debug.cap", HEADER);
+        bos = new ByteArrayOutputStream();
+        copy.store(bos);
+        CAPFile again = CAPFile.fromBytes(bos.toByteArray());
+        Assert.assertEquals(again.getCode(), code());
+        Assert.assertEquals(again.getComponent("Debug"), HEADER);
+        Assert.assertEquals(again.getMetaInfEntry(CAPFile.DAP_P256_SHA256_FILE), METHOD);
+
+        // Put entries count as changed even with the same contents
+        bos = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bos)) {
+            out.setMethod(ZipOutputStream.STORED);
+            for (String name : new String[]{"Header", "Debug"}) {
+                byte[] content = name.equals("Header") ? HEADER : DEBUG;
+                ZipEntry e = new ZipEntry(DIR + name + ".cap");
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                e.setSize(content.length);
+                e.setCrc(crc.getValue());
+                out.putNextEntry(e);
+                out.write(content);
+                out.closeEntry();
+            }
+        }
+        ZipEntries stored = ZipEntries.parse(bos.toByteArray());
+        stored.put(DIR + "Debug.cap", DEBUG.clone());
+        bos = new ByteArrayOutputStream();
+        ZipEntries.store(stored, bos);
+        Map<String, Integer> methods = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            for (ZipEntry e = in.getNextEntry(); e != null; e = in.getNextEntry())
+                methods.put(e.getName(), e.getMethod());
+        }
+        Assert.assertEquals(methods.get(DIR + "Header.cap").intValue(), ZipEntry.STORED);
+        Assert.assertEquals(methods.get(DIR + "Debug.cap").intValue(), ZipEntry.DEFLATED);
+    }
+
+    @Test
+    public void testCodeView() throws Exception {
+        CAPFile cap = CAPFile.fromBytes(zip(true));
+        Assert.assertEquals(cap.getCodeLength(), code().length);
+        Assert.assertEquals(cap.getCodeBuffers().length, 4);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Assert.assertEquals(cap.writeCode(Channels.newChannel(bos)), code().length);
+        Assert.assertEquals(bos.toByteArray(), code());
+    }
+
+    @Test
+    public void testPeek() throws Exception {
+        CAPFile cap = CAPFile.peek(zip(true));
+        Assert.assertEquals(cap.getPackageAID(), new AID("0102030405060708"));
+        Assert.assertEquals(cap.getApplets().size(), 1);
+        Assert.assertEquals(cap.getImports().size(), 1);
+        Assert.assertEquals(cap.getCode(), code());
+    }
+
+    @Test
+    public void testHashes() throws Exception {
+        CAPFile cap = CAPFile.fromBytes(zip(true));
+        Map<String, byte[]> hashes = cap.getLoadFileDataHashes("SHA-1", "SHA-256", "SHA-512");
+        Assert.assertEquals(hashes.get("SHA-256"), MessageDigest.getInstance("SHA-256").digest(code()));
+        Assert.assertEquals(cap.getLoadFileDataHash("SHA-512"), MessageDigest.getInstance("SHA-512").digest(code()));
+        // Changed component invalidates remembered hashes
+        cap.entries.put(DIR + "Method.cap", DEBUG);
+        Assert.assertNotEquals(HexUtils.bin2hex(cap.getLoadFileDataHash("SHA-256")), HexUtils.bin2hex(hashes.get("SHA-256")));
+        Assert.assertEquals(cap.getLoadFileDataHash("SHA-256"), MessageDigest.getInstance("SHA-256").digest(cap.getCode()));
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Invalid CRC for .*Header.cap")
+    public void testCorruptHeader() throws Exception {
+        byte[] zip = zip(false);
+        // Stored, so the component is there as it is
+        for (int i = 0; i < zip.length - HEADER.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(zip, i, i + HEADER.length), HEADER)) {
+                zip[i + 4]++;
+                break;
+            }
+        }
+        CAPFile.fromBytes(zip);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNotZip() throws Exception {
+        CAPFile.fromBytes(HEADER);
+    }
+}
@@ -0,0 +1,73 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestCAPFileBatch {
+    private Path dir;
+
+    @BeforeMethod
+    public void createDirectory() throws Exception {
+        dir = Files.createTempDirectory("capfile");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws Exception {
+        TestCAPFile.delete(dir);
+    }
+
+    @Test
+    public void testOrderAndErrors() throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            files.add(Files.write(dir.resolve(i + ".cap"), new byte[i]));
+        files.add(5, dir.resolve("missing.cap"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Earlier files take longer
+        Assert.assertFalse(CAPFileBatch.run(files, 4, (f, w) -> {
+            long size = Files.size(f);
+            Thread.sleep(40 - 2 * size);
+            w.name("size").value(size);
+        }, out));
+        String[] lines = out.toString("UTF-8").split("\n");
+        Assert.assertEquals(lines.length, files.size());
+        Assert.assertEquals(lines[0], "{\"file\":\"" + files.get(0) + "\",\"size\":0}");
+        Assert.assertEquals(lines[5], "{\"file\":\"" + files.get(5) + "\",\"error\":\"No such file\"}");
+        Assert.assertEquals(lines[20], "{\"file\":\"" + files.get(20) + "\",\"size\":19}");
+        for (int i = 0; i < files.size(); i++)
+            Assert.assertTrue(lines[i].startsWith("{\"file\":\"" + files.get(i) + "\","));
+        // All good
+        out.reset();
+        files.remove(5);
+        Assert.assertTrue(CAPFileBatch.run(files, 4, (f, w) -> w.name("size").value(Files.size(f)), out));
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            files.add(dir.resolve(i + ".cap"));
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger seen = new AtomicInteger();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertTrue(CAPFileBatch.run(files, 2, (f, w) -> {
+            started.incrementAndGet();
+            // Others finish while the first one is stuck
+            if (f.equals(files.get(0))) {
+                Thread.sleep(500);
+                seen.set(started.get());
+            }
+        }, out));
+        Assert.assertTrue(seen.get() <= 4, "started " + seen.get());
+        Assert.assertEquals(out.toString("UTF-8").split("\n").length, 100);
+    }
+}
@@ -0,0 +1,41 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+import static pro.javacard.TestCAPFile.code;
+import static pro.javacard.TestCAPFile.zip;
+
+public class TestCAPFileCache {
+    private Path dir;
+
+    @BeforeMethod
+    public void createDirectory() throws Exception {
+        dir = Files.createTempDirectory("capfile");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws Exception {
+        TestCAPFile.delete(dir);
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        Path file = dir.resolve("test.cap");
+        Files.write(file, zip(true));
+        try (CAPFileCache cache = CAPFileCache.open(dir)) {
+            Assert.assertEquals(cache.get(file).getCodeLength(), code().length);
+        }
+        try (CAPFileCache cache = CAPFileCache.open(dir)) {
+            CAPFileInfo info = cache.get(file);
+            Assert.assertEquals(info.getPackage(), CAPFile.fromFile(file).getPackage());
+            Assert.assertEquals(info.getLoadFileDataHash("SHA-256"), MessageDigest.getInstance("SHA-256").digest(code()));
+        }
+    }
+}
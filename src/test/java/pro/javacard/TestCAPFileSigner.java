@@ -0,0 +1,114 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static pro.javacard.TestCAPFile.DEBUG;
+import static pro.javacard.TestCAPFile.DIR;
+import static pro.javacard.TestCAPFile.code;
+import static pro.javacard.TestCAPFile.zip;
+
+public class TestCAPFileSigner {
+    private Path dir;
+
+    @BeforeMethod
+    public void createDirectory() throws Exception {
+        dir = Files.createTempDirectory("capfile");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws Exception {
+        TestCAPFile.delete(dir);
+    }
+
+    static KeyPair p256() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair();
+    }
+
+    @Test
+    public void testSignAndVerify() throws Exception {
+        KeyPair trusted = p256();
+        KeyPair other = p256();
+        CAPFile cap = CAPFile.fromBytes(zip(true));
+        DAPVerifier verifier = new DAPVerifier(Arrays.asList(other.getPublic(), trusted.getPublic()));
+        Assert.assertFalse(DAPVerifier.isValid(verifier.verify(cap)));
+        new CAPFileSigner(trusted.getPrivate()).sign(cap);
+        Map<String, Boolean> result = verifier.verify(cap);
+        Assert.assertEquals(result.keySet(), new HashSet<>(Arrays.asList(CAPFile.DAP_P256_SHA1_FILE, CAPFile.DAP_P256_SHA256_FILE)));
+        Assert.assertTrue(DAPVerifier.isValid(result));
+        Assert.assertFalse(DAPVerifier.isValid(new DAPVerifier(Arrays.asList(other.getPublic())).verify(cap)));
+        // Signatures survive storing and do not match a changed Load File
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        cap.store(bos);
+        Assert.assertTrue(DAPVerifier.isValid(verifier.verify(CAPFile.fromBytes(bos.toByteArray()))));
+        cap.entries.put(DIR + "Method.cap", DEBUG);
+        Assert.assertFalse(DAPVerifier.isValid(verifier.verify(cap)));
+    }
+
+    @Test
+    public void testSignInPlace() throws Exception {
+        KeyPair first = p256();
+        KeyPair second = p256();
+        Path file = dir.resolve("test.cap");
+        Files.write(file, zip(true));
+        new CAPFileSigner(first.getPrivate()).sign(file);
+        DAPVerifier verifier = new DAPVerifier(Arrays.asList(first.getPublic()));
+        Assert.assertTrue(DAPVerifier.isValid(verifier.verify(CAPFile.fromFile(file))));
+
+        // Signing again replaces the signatures of the same kind, the Load File stays the same
+        CAPFile cap = new CAPFileSigner(second.getPrivate()).sign(file);
+        CAPFile signed = CAPFile.fromFile(file);
+        Assert.assertEquals(signed.getCode(), code());
+        Assert.assertEquals(signed.getLoadFileDataHash("SHA-256"), cap.getLoadFileDataHash("SHA-256"));
+        Assert.assertEquals(signed.entries.keySet().stream().filter(e -> e.startsWith("META-INF/dap.")).count(), 2);
+        Assert.assertFalse(DAPVerifier.isValid(verifier.verify(signed)));
+        Assert.assertTrue(DAPVerifier.isValid(new DAPVerifier(Arrays.asList(second.getPublic())).verify(signed)));
+        // No temporary files left behind
+        try (Stream<Path> files = Files.list(dir)) {
+            Assert.assertEquals(files.collect(Collectors.toList()), Arrays.asList(file));
+        }
+    }
+
+    @Test
+    public void testSignMany() throws Exception {
+        KeyPair key = p256();
+        CAPFileSigner signer = new CAPFileSigner(key.getPrivate());
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Path file = dir.resolve(i + ".cap");
+            Files.write(file, zip(i % 2 == 0));
+            files.add(file);
+        }
+        files.add(dir.resolve("missing.cap"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertFalse(CAPFileBatch.run(files, 4, (f, w) -> w.name("signed").value(signer.sign(f).getLoadFileDataHash("SHA-256")), out));
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        Assert.assertEquals(lines.length, files.size());
+        String hash = HexUtils.bin2hex(CAPFile.fromBytes(zip(true)).getLoadFileDataHash("SHA-256")).toLowerCase();
+        DAPVerifier verifier = new DAPVerifier(Arrays.asList(key.getPublic()));
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(lines[i], "{\"file\":\"" + files.get(i) + "\",\"signed\":\"" + hash + "\"}");
+            Assert.assertTrue(DAPVerifier.isValid(verifier.verify(CAPFile.fromFile(files.get(i)))));
+        }
+        Assert.assertEquals(lines[20], "{\"file\":\"" + files.get(20) + "\",\"error\":\"No such file\"}");
+    }
+}
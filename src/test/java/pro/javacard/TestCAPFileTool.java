@@ -0,0 +1,41 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestCAPFileTool {
+    @Test
+    public void testMatrixGrid() throws Exception {
+        List<Path> files = Arrays.asList(new File("a.cap").toPath(), new File("b.cap").toPath());
+        Map<JavaCardSDK, List<VerifierFarm.Result>> matrix = new LinkedHashMap<>();
+        matrix.put(new JavaCardSDK(new File("jc222_kit"), JavaCardSDK.Version.V222, null), Arrays.asList(new VerifierFarm.Result(files.get(0), null), new VerifierFarm.Result(files.get(1), new VerifierError("No export file for javacardx.apdu v1.0"))));
+        matrix.put(new JavaCardSDK(new File("jc305u3_kit"), JavaCardSDK.Version.V305, null), Arrays.asList(new VerifierFarm.Result(files.get(0), null), new VerifierFarm.Result(files.get(1), null)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertFalse(CAPFileTool.grid(files, matrix, new PrintStream(out, true, "UTF-8")));
+        String[] lines = out.toString("UTF-8").split("\\r?\\n");
+        Assert.assertEquals(lines[0], "       jc222_kit  jc305u3_kit");
+        Assert.assertEquals(lines[2], "b.cap  FAIL       pass");
+        Assert.assertEquals(lines[3], "b.cap on jc222_kit: No export file for javacardx.apdu v1.0");
+    }
+
+    @Test
+    public void testMatrixGridFailure() throws Exception {
+        List<Path> files = Arrays.asList(new File("a.cap").toPath());
+        Map<JavaCardSDK, List<VerifierFarm.Result>> matrix = new LinkedHashMap<>();
+        matrix.put(new JavaCardSDK(new File("jc305u3_kit"), JavaCardSDK.Version.V305, null), Arrays.asList(new VerifierFarm.Result(files.get(0), null, new RuntimeException("Verifier exited with 3"))));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertFalse(CAPFileTool.grid(files, matrix, new PrintStream(out, true, "UTF-8")));
+        String[] lines = out.toString("UTF-8").split("\\r?\\n");
+        Assert.assertEquals(lines[1], "a.cap  ERROR");
+        Assert.assertEquals(lines[2], "a.cap on jc305u3_kit: could not verify: Verifier exited with 3");
+    }
+}
@@ -0,0 +1,30 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static pro.javacard.TestCAPFile.zip;
+
+public class TestDAPVerifier {
+    @Test
+    public void testUnknownDAP() throws Exception {
+        KeyPair key = TestCAPFileSigner.p256();
+        CAPFile cap = CAPFile.fromBytes(zip(true));
+        cap.entries.put("META-INF/dap.ed25519.sha512", new byte[64]);
+        DAPVerifier verifier = new DAPVerifier(Arrays.asList(key.getPublic()));
+        // Not a signature that fails, but none that verifies either
+        Assert.assertTrue(verifier.verify(cap).isEmpty());
+        Assert.assertFalse(DAPVerifier.isValid(verifier.verify(cap)));
+
+        new CAPFileSigner(key.getPrivate()).sign(cap);
+        Map<String, Boolean> result = verifier.verify(cap);
+        Assert.assertEquals(result.size(), 2);
+        Assert.assertTrue(DAPVerifier.isValid(result));
+        Assert.assertEquals(DAPVerifier.unknown(cap), Collections.singletonList("dap.ed25519.sha512"));
+    }
+}
@@ -0,0 +1,58 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static pro.javacard.TestCAPFile.zip;
+
+public class TestExportCatalog {
+    // javacard.framework v1.1 and v1.3
+    static final String EXP_11 = "00FACADE010200020100126A617661636172642F6672616D65776F726B0D0000000101" + "07A0000000620101" + "000100";
+    static final String EXP_13 = "00FACADE010200020100126A617661636172642F6672616D65776F726B0D0000000301" + "07A0000000620101" + "000100";
+
+    private Path dir;
+
+    @BeforeMethod
+    public void createDirectory() throws Exception {
+        dir = Files.createTempDirectory("capfile");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws Exception {
+        TestCAPFile.delete(dir);
+    }
+
+    @Test
+    public void testExportCatalog() throws Exception {
+        Path exps = Files.createDirectories(dir.resolve("exps/javacard/framework/javacard"));
+        Files.write(exps.resolve("framework.exp"), HexUtils.hex2bin(EXP_13));
+        Path jar = dir.resolve("exps.jar");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+            zip.putNextEntry(new ZipEntry("javacard/framework/javacard/framework.exp"));
+            zip.write(HexUtils.hex2bin(EXP_11));
+        }
+        CAPFile cap = CAPFile.fromBytes(zip(true));
+        List<File> locations = Arrays.asList(dir.resolve("exps").toFile(), jar.toFile());
+        try (ExportCatalog catalog = ExportCatalog.open(dir)) {
+            List<ExportCatalog.Export> selected = catalog.select(locations, cap.getImports());
+            Assert.assertEquals(selected.size(), 1);
+            Assert.assertEquals(selected.get(0).getEntry().get(), "javacard/framework/javacard/framework.exp");
+        }
+        // Remembered, but not if modified
+        try (ExportCatalog catalog = ExportCatalog.open(dir)) {
+            Assert.assertEquals(catalog.index(jar.toFile()).get(0).getPackage().getName().get(), "javacard.framework");
+            Files.delete(exps.resolve("framework.exp"));
+            Assert.assertTrue(catalog.index(locations.get(0)).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static pro.javacard.TestCAPFile.DIR;
+import static pro.javacard.TestCAPFile.zip;
+
+public class TestExportFile {
+    // javacard.framework v1.1 with class Util (token 3) and static method m (token 0)
+    static final String EXP_LINK = "00FACADE010200060100126A617661636172642F6672616D65776F726B0D000000010107A0000000620101"
+            + "0100176A617661636172642F6672616D65776F726B2F5574696C0700020100016D010003282956" + "0001" + "0103000100030000000000000100000900040005";
+    // Class Util, static method 0 and static field 5 of package token 0
+    static final byte[] CONSTANT_POOL = HexUtils.hex2bin("05000E0003018003000680030005800305");
+
+    @Test
+    public void testExportFileAndLinking() throws Exception {
+        ExportFile exp = ExportFile.parse(HexUtils.hex2bin(EXP_LINK));
+        Assert.assertEquals(exp.getPackage(), new CAPPackage(new AID("A0000000620101"), 1, 1));
+        Assert.assertEquals(exp.getPackage().getName().get(), "javacard.framework");
+        ExportFile.ExportClass util = exp.getExportClass(3).get();
+        Assert.assertEquals(util.getName(), "javacard.framework.Util");
+        Assert.assertEquals(util.getStaticMethod(0).get().toString(), "m()V");
+
+        CAPFile cap = CAPFile.fromBytes(zip(true));
+        Assert.assertTrue(LinkChecker.check(cap, Arrays.asList(exp)).isEmpty());
+        Assert.assertEquals(LinkChecker.check(cap, Arrays.asList()).size(), 1);
+        cap.entries.put(DIR + "ConstantPool.cap", CONSTANT_POOL);
+        List<String> problems = LinkChecker.check(cap, Arrays.asList(exp));
+        Assert.assertEquals(problems, Arrays.asList("Constant pool entry 2: no static field with token 5 in javacard.framework.Util"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testTruncatedExportFile() throws Exception {
+        ExportFile.parse(Arrays.copyOf(HexUtils.hex2bin(EXP_LINK), 40));
+    }
+
+    @Test
+    public void testAttributeLength() throws Exception {
+        // Class Util with a static field that has a ConstantValue attribute of the given length
+        String head = EXP_LINK.substring(0, EXP_LINK.length() - 40) + "0103000100030000000001050009000400050001" + "0004";
+        for (String length : new String[]{"FFFFFFFF", "7FFFFFFF"}) {
+            IOException e = Assert.expectThrows(IOException.class, () -> ExportFile.parse(HexUtils.hex2bin(head + length + "00000000")));
+            Assert.assertTrue(e.getMessage().startsWith("Invalid attribute length"));
+        }
+        ExportFile exp = ExportFile.parse(HexUtils.hex2bin(head + "00000002" + "0001" + "0000"));
+        Assert.assertEquals(exp.getExportClass(3).get().getName(), "javacard.framework.Util");
+    }
+}
@@ -0,0 +1,21 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+
+public class TestHexUtils {
+    @Test
+    public void testHex() throws Exception {
+        Assert.assertEquals(HexUtils.stringToBin("0xA0 00:00;00\t62\n0x01 01"), HexUtils.hex2bin("A0000000620101"));
+        Assert.assertEquals(HexUtils.stringToBin("a0b1"), HexUtils.hex2bin("A0B1"));
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        Assert.assertEquals(HexUtils.decode(new StringBuilder("CA FE"), buffer), 2);
+        Assert.assertEquals(buffer.position(), 2);
+        Assert.assertEquals(HexUtils.bin2hex(TestCAPFile.HEADER, 3, 4, new StringBuilder("0x")).toString(), "0xDECAFFED");
+        Assert.assertThrows(IllegalArgumentException.class, () -> HexUtils.stringToBin("A0 0"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> HexUtils.hex2bin("A0 0"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> HexUtils.stringToBin("G0"));
+    }
+}
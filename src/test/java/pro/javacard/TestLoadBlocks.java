@@ -0,0 +1,43 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static pro.javacard.TestCAPFile.code;
+import static pro.javacard.TestCAPFile.zip;
+
+public class TestLoadBlocks {
+    @Test
+    public void testLoadBlocks() throws Exception {
+        CAPFile cap = CAPFile.fromBytes(zip(true));
+        byte[] code = code();
+        LoadBlocks blocks = cap.getLoadBlocks(16);
+        ByteBuffer all = ByteBuffer.allocate(blocks.getLength());
+        for (int i = 0; i < blocks.getBlockCount(); i++)
+            blocks.writeBlock(i, all);
+        Assert.assertEquals(Arrays.copyOf(all.array(), 2), new byte[]{(byte) 0xC4, (byte) code.length});
+        Assert.assertEquals(Arrays.copyOfRange(all.array(), 2, all.position()), code);
+
+        cap.entries.put("META-INF/" + CAPFile.DAP_RSA_V1_SHA1_FILE, new byte[]{1, 2, 3});
+        blocks = cap.getLoadBlocks(200, new AID("A000000151000000"), CAPFile.DAP_RSA_V1_SHA1_FILE);
+        ByteBuffer apdu = ByteBuffer.allocate(261);
+        blocks.writeAPDU(0, apdu);
+        Assert.assertEquals(Arrays.copyOf(apdu.array(), 24), HexUtils.hex2bin("80E8800052E20F4F08A000000151000000C303010203C43F"));
+        Assert.assertEquals(blocks.getBlockBuffers(0).length, 5);
+    }
+
+    @Test
+    public void testBlockNumber() throws Exception {
+        LoadBlocks blocks = new LoadBlocks(1, new byte[0], Collections.singletonList(new byte[257]));
+        Assert.assertEquals(blocks.getBlockCount(), 257);
+        ByteBuffer apdu = ByteBuffer.allocate(261);
+        blocks.writeAPDU(255, apdu);
+        Assert.assertEquals(apdu.get(3), (byte) 0xFF);
+        apdu.clear();
+        Assert.assertThrows(IllegalStateException.class, () -> blocks.writeAPDU(256, apdu));
+    }
+}
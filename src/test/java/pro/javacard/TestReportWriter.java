@@ -0,0 +1,31 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static pro.javacard.TestCAPFile.zip;
+
+public class TestReportWriter {
+    @Test
+    public void testReportWriters() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ReportWriter out = ReportWriter.cbor(bos)) {
+            out.beginObject().name("a").beginArray().value(1).value(-1).value(true).endArray().name("b").value(new byte[]{(byte) 0xCA}).endObject();
+        }
+        Assert.assertEquals(bos.toByteArray(), HexUtils.hex2bin("BF61619F0120F5FF616241CAFF"));
+        bos.reset();
+        try (ReportWriter out = ReportWriter.json(bos)) {
+            out.beginObject().name("a").beginArray().value(1).value(-1).value(true).endArray().name("b").value(new byte[]{(byte) 0xCA}).name("c").value("\u00e4\"\n").endObject();
+        }
+        Assert.assertEquals(bos.toString("UTF-8"), "{\"a\":[1,-1,true],\"b\":\"ca\",\"c\":\"\u00e4\\\"\\n\"}\n");
+        // Same record as a JSON summary
+        CAPFile cap = CAPFile.fromBytes(zip(true));
+        bos.reset();
+        try (ReportWriter out = ReportWriter.json(bos)) {
+            cap.report(out);
+        }
+        Assert.assertEquals(bos.toString("UTF-8").trim(), CAPFileBatch.summary(null, CAPFileInfo.of(cap)));
+    }
+}
@@ -0,0 +1,52 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class TestSDKRegistry {
+    private Path dir;
+
+    @BeforeMethod
+    public void createDirectory() throws Exception {
+        dir = Files.createTempDirectory("capfile");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws Exception {
+        TestCAPFile.delete(dir);
+    }
+
+    @Test
+    public void testSDKRegistry() throws Exception {
+        Files.createDirectories(dir.resolve("sdks/jc212_kit/lib"));
+        Files.write(dir.resolve("sdks/jc212_kit/lib/api21.jar"), new byte[0]);
+        Path api = Files.createDirectories(dir.resolve("sdks/jc222_kit/lib")).resolve("api.jar");
+        Files.write(api.resolveSibling("converter.jar"), new byte[0]);
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(api))) {
+            zip.putNextEntry(new ZipEntry("javacardx/apdu/ExtendedLength.class"));
+        }
+        try (SDKRegistry registry = SDKRegistry.open(dir)) {
+            List<JavaCardSDK> sdks = registry.scan(Arrays.asList(dir.resolve("sdks"), dir.resolve("missing")));
+            Assert.assertEquals(sdks.size(), 2);
+            Assert.assertEquals(sdks.get(1).getVersion(), JavaCardSDK.Version.V222);
+        }
+        // Remembered, but not if modified
+        try (SDKRegistry registry = SDKRegistry.open(dir)) {
+            Assert.assertEquals(registry.getSDKs().size(), 2);
+            Assert.assertEquals(registry.detectSDK(dir.resolve("sdks/jc212_kit").toString()).getVersion(), JavaCardSDK.Version.V212);
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(api))) {
+                zip.putNextEntry(new ZipEntry("javacard/framework/APDU.class"));
+            }
+            Assert.assertEquals(registry.detectSDK(api.getParent().getParent().toString()).getVersion(), JavaCardSDK.Version.V221);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static pro.javacard.TestCAPFile.DIR;
+import static pro.javacard.TestCAPFile.HEADER;
+import static pro.javacard.TestCAPFile.zip;
+
+public class TestStructureChecker {
+    @Test
+    public void testStructure() throws Exception {
+        CAPFile cap = CAPFile.fromBytes(zip(true));
+        List<String> problems = StructureChecker.check(cap);
+        Assert.assertTrue(problems.contains("Missing Directory component"));
+        Assert.assertTrue(problems.contains("Applet component: install method offset 31 is outside of 8"));
+        Assert.assertFalse(problems.stream().anyMatch(p -> p.startsWith("Header") || p.startsWith("Import") || p.startsWith("Method")));
+        cap.entries.put(DIR + "ConstantPool.cap", HexUtils.hex2bin("05000E00030180030006800300058003"));
+        Assert.assertTrue(StructureChecker.check(cap).contains("ConstantPool component size 14 does not match its length 13"));
+        cap.entries.put(DIR + "ConstantPool.cap", HexUtils.hex2bin("05000A00030180030006800300"));
+        Assert.assertTrue(StructureChecker.check(cap).contains("ConstantPool component is truncated"));
+
+        // Badly framed component is reported once, not again by the Directory
+        cap = CAPFile.fromBytes(zip(true));
+        cap.entries.put(DIR + "Directory.cap", HexUtils.hex2bin("020021" + "00130021000D000B00000000000800000000000000000004" + "000000000000" + "010100"));
+        Assert.assertFalse(StructureChecker.check(cap).stream().anyMatch(p -> p.startsWith("Directory")));
+        cap.entries.put(DIR + "Applet.cap", HexUtils.hex2bin("03000E0109010203040506070801001F"));
+        problems = StructureChecker.check(cap);
+        Assert.assertTrue(problems.contains("Applet component size 14 does not match its length 13"));
+        Assert.assertFalse(problems.stream().anyMatch(p -> p.startsWith("Directory")));
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Invalid CAP file: Import component is truncated")
+    public void testBrokenImport() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bos)) {
+            out.putNextEntry(new ZipEntry(DIR + "Header.cap"));
+            out.write(HEADER);
+            out.putNextEntry(new ZipEntry(DIR + "Import.cap"));
+            out.write(HexUtils.hex2bin("04000B02010107A0000000620101"));
+        }
+        CAPFile.fromBytes(bos.toByteArray());
+    }
+}
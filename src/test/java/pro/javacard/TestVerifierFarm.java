@@ -0,0 +1,65 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static pro.javacard.TestVerifierSession.cap;
+import static pro.javacard.TestVerifierSession.sdk;
+
+public class TestVerifierFarm {
+    private Path dir;
+
+    @BeforeMethod
+    public void createDirectory() throws Exception {
+        dir = Files.createTempDirectory("capfile");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws Exception {
+        TestCAPFile.delete(dir);
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        JavaCardSDK sdk = sdk(dir);
+        List<Path> files = Arrays.asList(cap(dir, "good.cap"), cap(dir, "bad.cap"), dir.resolve("missing.cap"), cap(dir, "good2.cap"));
+        try (VerifierFarm farm = VerifierFarm.open(sdk, 2)) {
+            List<VerifierFarm.Result> results = farm.verifyAgainst(files, sdk, Collections.emptyList());
+            Assert.assertEquals(results.size(), 4);
+            for (int i = 0; i < files.size(); i++)
+                Assert.assertEquals(results.get(i).getFile(), files.get(i));
+            Assert.assertTrue(results.get(0).isVerified());
+            // Rejected by the verifier
+            Assert.assertFalse(results.get(1).isVerified());
+            Assert.assertEquals(results.get(1).getError().get().getMessage(), "com.example does not verify with 0 export files");
+            Assert.assertFalse(results.get(1).getFailure().isPresent());
+            // Not verified at all
+            Assert.assertFalse(results.get(2).isVerified());
+            Assert.assertFalse(results.get(2).getError().isPresent());
+            Assert.assertTrue(results.get(2).getFailure().isPresent());
+            Assert.assertTrue(results.get(3).isVerified());
+        }
+    }
+
+    @Test
+    public void testVerifyMatrix() throws Exception {
+        JavaCardSDK sdk = sdk(dir);
+        List<Path> files = Arrays.asList(cap(dir, "good.cap"), dir.resolve("missing.cap"));
+        try (VerifierFarm farm = VerifierFarm.open(sdk, 2)) {
+            Map<JavaCardSDK, List<VerifierFarm.Result>> matrix = farm.verifyMatrix(files, Arrays.asList(sdk), Collections.emptyList());
+            List<VerifierFarm.Result> results = matrix.get(sdk);
+            Assert.assertTrue(results.get(0).isVerified());
+            Assert.assertFalse(results.get(1).getError().isPresent());
+            Assert.assertTrue(results.get(1).getFailure().get().getMessage().startsWith("Could not read CAP file: "));
+        }
+    }
+}
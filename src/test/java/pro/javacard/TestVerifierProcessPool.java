@@ -0,0 +1,70 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static pro.javacard.TestVerifierSession.cap;
+import static pro.javacard.TestVerifierSession.sdk;
+
+public class TestVerifierProcessPool {
+    private Path dir;
+
+    @BeforeMethod
+    public void createDirectory() throws Exception {
+        dir = Files.createTempDirectory("capfile");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws Exception {
+        TestCAPFile.delete(dir);
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        JavaCardSDK sdk = sdk(dir);
+        List<Path> files = Arrays.asList(cap(dir, "good.cap"), cap(dir, "bad.cap"), cap(dir, "exit.cap"), cap(dir, "slow.cap"), dir.resolve("missing.cap"), cap(dir, "good2.cap"));
+        try (VerifierProcessPool pool = VerifierProcessPool.open(sdk, 2, 2, 5000)) {
+            List<VerifierFarm.Result> results = pool.verify(files, Collections.emptyList());
+            Assert.assertEquals(results.size(), files.size());
+            Assert.assertTrue(results.get(0).isVerified());
+            Assert.assertEquals(results.get(1).getError().get().getMessage(), "com.example does not verify with 0 export files");
+            // Crashed, timed out and unreadable are not verdicts on the CAP file
+            Assert.assertFalse(results.get(2).getError().isPresent());
+            Assert.assertEquals(results.get(2).getFailure().get().getMessage(), "Verifier exited with 3");
+            Assert.assertFalse(results.get(3).getError().isPresent());
+            Assert.assertEquals(results.get(3).getFailure().get().getMessage(), "Verification timed out after 5000ms");
+            Assert.assertFalse(results.get(4).getError().isPresent());
+            Assert.assertTrue(results.get(4).getFailure().isPresent());
+            // Worker replaced after all of that
+            Assert.assertTrue(results.get(5).isVerified());
+        }
+    }
+
+    @Test
+    public void testRetire() throws Exception {
+        JavaCardSDK sdk = sdk(dir);
+        List<Path> files = Arrays.asList(cap(dir, "good.cap"), cap(dir, "good2.cap"), cap(dir, "good3.cap"));
+        // Every job retires the only worker, the next one waits for its replacement
+        try (VerifierProcessPool pool = VerifierProcessPool.open(sdk, 1, 1, 5000)) {
+            for (VerifierFarm.Result r : pool.verify(files, Collections.emptyList()))
+                Assert.assertTrue(r.isVerified());
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Could not start verifier: .*")
+    public void testNoSDK() throws Exception {
+        JavaCardSDK sdk = sdk(dir);
+        // Gone before the workers start
+        TestCAPFile.delete(sdk.getRoot().toPath());
+        VerifierProcessPool.open(sdk, 1);
+    }
+}
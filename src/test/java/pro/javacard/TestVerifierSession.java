@@ -0,0 +1,110 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static pro.javacard.TestCAPFile.zip;
+
+public class TestVerifierSession {
+    // Stand-in for the SDK verifier, the outcome depends on the name of the CAP file
+    private static final String VERIFIER = String.join("\n",
+            "package com.sun.javacard.offcardverifier;",
+            "public class Verifier {",
+            "    public static void verifyTargetPlatform(String s) {}",
+            "    public static void verifyCap(java.io.File f, String pkg, java.util.Vector<java.io.File> exps) throws Exception {",
+            "        String name = f.getName();",
+            "        if (name.startsWith(\"bad\")) throw new Exception(pkg + \" does not verify with \" + exps.size() + \" export files\");",
+            "        if (name.startsWith(\"exit\")) System.exit(3);",
+            "        if (name.startsWith(\"slow\")) Thread.sleep(60000);",
+            "    }",
+            "}");
+
+    private Path dir;
+
+    @BeforeMethod
+    public void createDirectory() throws Exception {
+        dir = Files.createTempDirectory("capfile");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws Exception {
+        TestCAPFile.delete(dir);
+    }
+
+    // A 3.0.5u3 lookalike in dir/sdk, skips the test if there is no compiler for the fake verifier
+    static JavaCardSDK sdk(Path dir) throws Exception {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null)
+            throw new SkipException("No Java compiler for a fake SDK");
+        Path src = Files.createDirectories(dir.resolve("src/com/sun/javacard/offcardverifier"));
+        Files.write(src.resolve("Verifier.java"), VERIFIER.getBytes(StandardCharsets.UTF_8));
+        Path classes = Files.createDirectories(dir.resolve("classes"));
+        if (javac.run(null, null, null, "-nowarn", "-d", classes.toString(), src.resolve("Verifier.java").toString()) != 0)
+            throw new SkipException("Could not compile fake SDK");
+        Path lib = Files.createDirectories(dir.resolve("sdk/lib"));
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(lib.resolve("tools.jar")))) {
+            zip.putNextEntry(new ZipEntry("com/sun/javacard/offcardverifier/Verifier.class"));
+            zip.write(Files.readAllBytes(classes.resolve("com/sun/javacard/offcardverifier/Verifier.class")));
+        }
+        // Only looked up for the version
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(lib.resolve("api_classic.jar")))) {
+            zip.putNextEntry(new ZipEntry("javacard/framework/SensitiveArrays.class"));
+        }
+        Files.createDirectories(dir.resolve("sdk/api_export_files"));
+        JavaCardSDK sdk = JavaCardSDK.detectSDK(dir.resolve("sdk").toString());
+        Assert.assertEquals(sdk.getRelease(), "3.0.5u3");
+        return sdk;
+    }
+
+    static Path cap(Path dir, String name) throws Exception {
+        return Files.write(dir.resolve(name), zip(true));
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        JavaCardSDK sdk = sdk(dir);
+        // EXP files from a directory and a JAR file
+        Path exps = Files.createDirectories(dir.resolve("exps/javacard/framework/javacard"));
+        Files.write(exps.resolve("framework.exp"), HexUtils.hex2bin(TestExportCatalog.EXP_13));
+        Path jar = dir.resolve("exps.jar");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+            zip.putNextEntry(new ZipEntry("javacard/framework/javacard/framework.exp"));
+            zip.write(HexUtils.hex2bin(TestExportCatalog.EXP_11));
+        }
+        List<File> locations = Arrays.asList(dir.resolve("exps").toFile(), jar.toFile());
+        try (VerifierSession session = VerifierSession.open(sdk)) {
+            session.verify(cap(dir, "good.cap").toFile(), locations);
+            VerifierError e = Assert.expectThrows(VerifierError.class, () -> session.verify(cap(dir, "bad.cap").toFile(), locations));
+            Assert.assertEquals(e.getMessage(), "com.example does not verify with 2 export files");
+            // Not a verifier error
+            Assert.expectThrows(RuntimeException.class, () -> session.verify(dir.resolve("missing.cap").toFile(), locations));
+        }
+    }
+
+    @Test
+    public void testCheck() throws Exception {
+        JavaCardSDK sdk = sdk(dir);
+        CAPFile cap = CAPFile.fromBytes(zip(true));
+        try (VerifierSession session = VerifierSession.open(sdk)) {
+            // Structure problems come first, linking is not attempted
+            List<String> problems = session.check(cap, Collections.emptyList());
+            Assert.assertEquals(problems, StructureChecker.check(cap));
+            Assert.assertFalse(problems.stream().anyMatch(p -> p.startsWith("No export file")));
+        }
+    }
+}
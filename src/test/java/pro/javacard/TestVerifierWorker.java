@@ -0,0 +1,24 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+
+public class TestVerifierWorker {
+
+    @Test
+    public void testLongMessage() throws Exception {
+        // More than writeUTF() can take
+        char[] chars = new char[100000];
+        Arrays.fill(chars, '\u00e4');
+        String message = new String(chars);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        VerifierWorker.writeString(new DataOutputStream(bos), message);
+        Assert.assertEquals(VerifierWorker.readString(new DataInputStream(new ByteArrayInputStream(bos.toByteArray()))), message);
+    }
+}
@@ -3,8 +3,17 @@ package pro.javacard;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
 
 public class TestWellKnownAID {
 
@@ -15,4 +24,76 @@ public class TestWellKnownAID {
             Assert.assertEquals(WellKnownAID.getName(AID.fromString("D276000085494A434F5058")), Optional.of("com.nxp.id.jcopx"));
         }
     }
+
+    @Test
+    public void testCompiledList() throws Exception {
+        try (InputStream in = getClass().getResourceAsStream("aid_list.yml")) {
+            Map<AID, String> list = AIDList.parse(in);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            AIDList.write(list, bos);
+            Assert.assertEquals(AIDList.read(new ByteArrayInputStream(bos.toByteArray())), list);
+        }
+    }
+
+    @Test
+    public void testInvalidEntries() throws Exception {
+        String yaml = "- aid: A000000062\n  name: oracle\n- aid: A0ZZ\n  name: bad\n- name: noaid\n- just a string\n";
+        List<String> problems = new ArrayList<>();
+        Map<AID, String> list = AIDList.parse(new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8)), problems);
+        Assert.assertEquals(list.size(), 1);
+        Assert.assertEquals(list.get(AID.fromString("A000000062")), "oracle");
+        Assert.assertEquals(problems.size(), 3);
+        // Compiled list must be valid as a whole
+        Assert.assertThrows(IOException.class, () -> AIDList.parse(new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8))));
+        Assert.assertThrows(IOException.class, () -> AIDList.parse(new ByteArrayInputStream("aid: A000000062".getBytes(StandardCharsets.UTF_8)), problems));
+    }
+
+    @Test
+    public void testTrie() throws Exception {
+        Map<AID, String> entries = new HashMap<>();
+        entries.put(AID.fromString("A000000062"), "oracle");
+        entries.put(AID.fromString("A0000000620101"), "javacard.framework");
+        entries.put(AID.fromString("A000000062010101"), "javacard.framework.service");
+        entries.put(AID.fromString("A0000001515350"), "SSD creation package");
+        AIDTrie trie = AIDTrie.of(entries);
+        Assert.assertEquals(trie.size(), 4);
+        Assert.assertEquals(trie.get(AID.fromString("A0000000620101")), Optional.of("javacard.framework"));
+        Assert.assertEquals(trie.get(AID.fromString("A00000006201")), Optional.empty());
+        Assert.assertEquals(trie.getLongestPrefix(AID.fromString("A00000006201010203")), Optional.of("javacard.framework"));
+        Assert.assertEquals(trie.getLongestPrefix(AID.fromString("A0000001515351")), Optional.empty());
+        Assert.assertEquals(trie.getRID(AID.fromString("A0000000620102")), Optional.of("oracle"));
+        Assert.assertEquals(trie.getRID(AID.fromString("A0000001515350")), Optional.empty());
+        // Slice of a SELECT command
+        byte[] select = HexUtils.hex2bin("00A4040007A000000062010100");
+        Assert.assertEquals(trie.get(select, 5, select[4]), "javacard.framework");
+        Assert.assertEquals(WellKnownAID.getPrefixName(AID.fromString("A0000000620101FF")), Optional.of("javacard.framework"));
+
+        // Same as exact lookups in a map
+        Random random = new Random(42);
+        Map<AID, String> many = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            byte[] aid = new byte[5 + random.nextInt(12)];
+            random.nextBytes(aid);
+            aid[0] = (byte) 0xA0;
+            many.put(new AID(aid), Integer.toString(i));
+        }
+        trie = AIDTrie.of(many);
+        for (Map.Entry<AID, String> e : many.entrySet())
+            Assert.assertEquals(trie.get(e.getKey()), Optional.of(e.getValue()));
+    }
+
+    @Test
+    public void testAID() throws Exception {
+        byte[] select = HexUtils.hex2bin("00A4040010A0000000620101FFEEDDCCBBAA99887700");
+        AID full = new AID(select, 5, 16);
+        Assert.assertEquals(full.toString(), "A0000000620101FFEEDDCCBBAA998877");
+        Assert.assertEquals(new AID(select, 5, 7), AID.fromString("A0000000620101"));
+        Assert.assertEquals(new AID(select, 5, 7).hashCode(), AID.fromString("A0000000620101").hashCode());
+        // Trailing zero bytes are part of the AID
+        Assert.assertNotEquals(AID.fromString("A000000062"), AID.fromString("A00000006200"));
+        Assert.assertSame(new AID(select, 5, 16).intern(), full.intern());
+        byte[] copy = new byte[16];
+        Assert.assertEquals(full.copyTo(copy, 0), 16);
+        Assert.assertEquals(copy, full.getBytes());
+    }
 }
@@ -0,0 +1,47 @@
+package pro.javacard;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import static pro.javacard.TestCAPFile.DIR;
+import static pro.javacard.TestCAPFile.zip;
+
+public class TestZipEntries {
+    // Archive with a 4 byte field of the first central directory entry (Header.cap) changed
+    static byte[] central(int field, int value) throws IOException {
+        byte[] zip = zip(true);
+        int end = zip.length - 22;
+        int p = ZipEntries.u4(zip, end + 16) + field;
+        for (int k = 0; k < 4; k++)
+            zip[p + k] = (byte) (value >> (8 * k));
+        return zip;
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Invalid entry size: .*Header.cap")
+    public void testHugeSize() throws Exception {
+        ZipEntries.parse(central(24, 0x7FFFFFF0));
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Invalid entry: .*Header.cap")
+    public void testHugeCompressedSize() throws Exception {
+        ZipEntries.parse(central(20, 0x7FFFFFF0));
+    }
+
+    @Test(expectedExceptions = IOException.class, expectedExceptionsMessageRegExp = "Invalid entry: .*Header.cap")
+    public void testHugeOffset() throws Exception {
+        ZipEntries.parse(central(42, 0x7FFFFFF0));
+    }
+
+    @Test
+    public void testWrongSize() throws Exception {
+        // Declared size smaller and larger than the inflated data
+        for (int size : new int[]{3, 30}) {
+            ZipEntries entries = ZipEntries.parse(central(24, size));
+            UncheckedIOException e = Assert.expectThrows(UncheckedIOException.class, () -> entries.get(DIR + "Header.cap"));
+            Assert.assertTrue(e.getCause().getMessage().startsWith("Invalid entry size"));
+        }
+    }
+}